@@ -0,0 +1,177 @@
+package com.commercial.backend;
+
+import com.mysql.cj.conf.PropertyKey;
+import com.mysql.cj.conf.RuntimeProperty;
+import com.mysql.cj.jdbc.JdbcConnection;
+import io.micrometer.core.instrument.Timer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Batches rows for one table and flushes them when the pending batch reaches a row count,
+ * an accumulated value size or an age limit, whichever comes first.
+ *
+ * <p>While the inserter is open the connection rewrites batches into multi-row INSERTs
+ * ({@code rewriteBatchedStatements}); the previous setting is restored on close. Rows still
+ * pending at that point are discarded, so callers {@link #flush()} once the input is done.</p>
+ *
+ * <p>With a commit interval the inserter also commits the connection's transaction after the
+ * flush that crosses every interval, which keeps the undo log of a long load bounded. The
+ * commit listener runs just before, so it can record progress in the same transaction, and the
+ * committed rows are reported once the commit succeeded.</p>
+ */
+class BatchInserter implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(BatchInserter.class.getName());
+
+    private final Connection connection;
+    private final String tableName;
+    private final int columnCount;
+    private final int maxRows;
+    private final long maxBytes;
+    private final long maxDelayNanos;
+    private final PreparedStatement preparedStatement;
+    private final RuntimeProperty<Boolean> rewriteBatchedStatements;
+    private final Boolean previousRewriteBatchedStatements;
+
+    private int pendingRows;
+    private long pendingBytes;
+    private long batchStartedAt;
+    private long rowCount;
+    private long commitInterval;
+    private long committedRowCount;
+    private CommitListener commitListener;
+    private LongConsumer committedRows;
+    private Timer flushTimer;
+
+    private int flushCount;
+    private long totalFlushNanos;
+    private long maxFlushNanos;
+
+    BatchInserter(Connection connection, String tableName, String insertQuery, int columnCount,
+                  int maxRows, long maxBytes, long maxDelayMillis, boolean rewriteBatches) throws SQLException {
+        this.connection = connection;
+        this.tableName = tableName;
+        this.columnCount = columnCount;
+        this.maxRows = maxRows;
+        this.maxBytes = maxBytes;
+        this.maxDelayNanos = maxDelayMillis * 1_000_000L;
+
+        // Other drivers, such as an in-memory database in tests, have no rewriting to switch
+        if (connection.isWrapperFor(JdbcConnection.class)) {
+            this.rewriteBatchedStatements = connection.unwrap(JdbcConnection.class).getPropertySet()
+                    .getBooleanProperty(PropertyKey.rewriteBatchedStatements);
+            this.previousRewriteBatchedStatements = rewriteBatchedStatements.getValue();
+            rewriteBatchedStatements.setValue(rewriteBatches);
+        } else {
+            this.rewriteBatchedStatements = null;
+            this.previousRewriteBatchedStatements = null;
+        }
+
+        this.preparedStatement = connection.prepareStatement(insertQuery);
+    }
+
+    /**
+     * Commits after every {@code rows} flushed rows; zero or less never commits. After each of
+     * these commits {@code committedRows}, when given, receives the number of rows committed so far.
+     */
+    void setCommitInterval(long rows, CommitListener listener, LongConsumer committedRows) {
+        this.commitInterval = rows;
+        this.commitListener = listener;
+        this.committedRows = committedRows;
+    }
+
+    /**
+     * Also records the latency of every flush in this timer.
+     */
+    void setFlushTimer(Timer flushTimer) {
+        this.flushTimer = flushTimer;
+    }
+
+    void setValue(int columnIndex, String value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(columnIndex + 1, Types.VARCHAR);
+        } else {
+            preparedStatement.setString(columnIndex + 1, value);
+            pendingBytes += value.length();
+        }
+    }
+
+    /**
+     * Queues the row bound through {@link #setValue}; columns that were not bound are set to NULL.
+     */
+    void addRow(int boundColumns) throws SQLException {
+        for (int columnIndex = boundColumns; columnIndex < columnCount; columnIndex++) {
+            preparedStatement.setNull(columnIndex + 1, Types.VARCHAR);
+        }
+        preparedStatement.addBatch();
+
+        if (pendingRows++ == 0) {
+            batchStartedAt = System.nanoTime();
+        }
+        if (pendingRows >= maxRows || pendingBytes >= maxBytes
+                || System.nanoTime() - batchStartedAt >= maxDelayNanos) {
+            flush();
+        }
+    }
+
+    void flush() throws SQLException {
+        if (pendingRows == 0) return;
+
+        long started = System.nanoTime();
+        preparedStatement.executeBatch();
+        long elapsed = System.nanoTime() - started;
+
+        flushCount++;
+        totalFlushNanos += elapsed;
+        maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+        if (flushTimer != null) flushTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        rowCount += pendingRows;
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(String.format("Flushed %d rows (%d chars) into %s in %d ms",
+                    pendingRows, pendingBytes, tableName, elapsed / 1_000_000));
+        }
+        pendingRows = 0;
+        pendingBytes = 0;
+
+        if (commitInterval > 0 && rowCount - committedRowCount >= commitInterval && !connection.getAutoCommit()) {
+            if (commitListener != null) commitListener.beforeCommit();
+            connection.commit();
+            committedRowCount = rowCount;
+            if (committedRows != null) committedRows.accept(committedRowCount);
+        }
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            preparedStatement.close();
+        } finally {
+            if (rewriteBatchedStatements != null) {
+                rewriteBatchedStatements.setValue(previousRewriteBatchedStatements);
+            }
+        }
+
+        if (flushCount > 0) {
+            logger.info(String.format("Inserted %d rows into %s in %d batches (batch size %d): avg %d ms, max %d ms per flush",
+                    rowCount, tableName, flushCount, maxRows,
+                    totalFlushNanos / flushCount / 1_000_000, maxFlushNanos / 1_000_000));
+        }
+    }
+
+    interface CommitListener {
+        void beforeCommit() throws SQLException;
+    }
+}
@@ -0,0 +1,149 @@
+package com.commercial.backend;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+/**
+ * Session settings for ingest connections. {@link #apply} switches a pooled connection to the
+ * profile and returns a handle that puts the previous values back, so the connection goes back
+ * to the pool the way it was borrowed.
+ *
+ * <p>Apply the profile before the first statement of a transaction: MySQL refuses to change
+ * {@code sql_log_bin} inside one, and the isolation level only affects the next transaction.
+ * {@code innodb_autoinc_lock_mode} is a startup option and cannot be set per session; it is
+ * only checked and reported.</p>
+ */
+@Component
+public class BulkLoadSessionProfile {
+
+    private static final Logger logger = Logger.getLogger(BulkLoadSessionProfile.class.getName());
+
+    private static final String SELECT_SESSION_SETTINGS =
+            "SELECT @@SESSION.unique_checks, @@SESSION.foreign_key_checks, @@SESSION.sql_log_bin";
+    private static final String SELECT_AUTOINC_LOCK_MODE = "SELECT @@GLOBAL.innodb_autoinc_lock_mode";
+    private static final int INTERLEAVED_AUTOINC_LOCK_MODE = 2;
+
+    @Value("${upload.session.enabled:true}")
+    private boolean enabled;
+
+    @Value("${upload.session.unique-checks:false}")
+    private boolean uniqueChecks;
+
+    @Value("${upload.session.foreign-key-checks:false}")
+    private boolean foreignKeyChecks;
+
+    @Value("${upload.session.sql-log-bin:true}")
+    private boolean sqlLogBin;
+
+    @Value("${upload.session.isolation:READ_COMMITTED}")
+    private String isolation;
+
+    private volatile boolean autoincLockModeChecked;
+
+    Session apply(Connection connection) throws SQLException {
+        if (!enabled) return () -> { };
+
+        checkAutoincLockMode(connection);
+
+        boolean previousUniqueChecks;
+        boolean previousForeignKeyChecks;
+        boolean previousSqlLogBin;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_SESSION_SETTINGS)) {
+            resultSet.next();
+            previousUniqueChecks = resultSet.getBoolean(1);
+            previousForeignKeyChecks = resultSet.getBoolean(2);
+            previousSqlLogBin = resultSet.getBoolean(3);
+        }
+        int previousIsolation = connection.getTransactionIsolation();
+
+        setSessionVariable(connection, "unique_checks", uniqueChecks);
+        setSessionVariable(connection, "foreign_key_checks", foreignKeyChecks);
+        boolean sqlLogBinChanged = sqlLogBin != previousSqlLogBin && trySetSqlLogBin(connection, sqlLogBin);
+        int profileIsolation = isolationLevel();
+        if (profileIsolation != Connection.TRANSACTION_NONE) {
+            connection.setTransactionIsolation(profileIsolation);
+        }
+
+        return () -> {
+            setSessionVariable(connection, "unique_checks", previousUniqueChecks);
+            setSessionVariable(connection, "foreign_key_checks", previousForeignKeyChecks);
+            if (sqlLogBinChanged) {
+                setSessionVariable(connection, "sql_log_bin", previousSqlLogBin);
+            }
+            connection.setTransactionIsolation(previousIsolation);
+        };
+    }
+
+    /**
+     * Turns unique checks on for the returned handle's lifetime. Upserts need them: with
+     * {@code unique_checks} off InnoDB may skip the duplicate check that ON DUPLICATE KEY relies on.
+     */
+    Session requireUniqueChecks(Connection connection) throws SQLException {
+        if (!enabled || uniqueChecks) return () -> { };
+
+        setSessionVariable(connection, "unique_checks", true);
+        return () -> setSessionVariable(connection, "unique_checks", false);
+    }
+
+    private static void setSessionVariable(Connection connection, String name, boolean value) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET SESSION " + name + " = " + (value ? 1 : 0));
+        }
+    }
+
+    /**
+     * Changing {@code sql_log_bin} needs SYSTEM_VARIABLES_ADMIN (SUPER before 8.0); without it the
+     * load keeps writing the binary log.
+     */
+    private static boolean trySetSqlLogBin(Connection connection, boolean value) {
+        try {
+            setSessionVariable(connection, "sql_log_bin", value);
+            return true;
+        } catch (SQLException e) {
+            logger.warning("Cannot change sql_log_bin for uploads, keeping the server setting: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private int isolationLevel() {
+        return switch (isolation.trim().toUpperCase()) {
+            case "READ_UNCOMMITTED" -> Connection.TRANSACTION_READ_UNCOMMITTED;
+            case "READ_COMMITTED" -> Connection.TRANSACTION_READ_COMMITTED;
+            case "REPEATABLE_READ" -> Connection.TRANSACTION_REPEATABLE_READ;
+            case "SERIALIZABLE" -> Connection.TRANSACTION_SERIALIZABLE;
+            case "", "DEFAULT" -> Connection.TRANSACTION_NONE;
+            default -> throw new IllegalStateException("Unknown upload.session.isolation: " + isolation);
+        };
+    }
+
+    private void checkAutoincLockMode(Connection connection) {
+        if (autoincLockModeChecked) return;
+        autoincLockModeChecked = true;
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_AUTOINC_LOCK_MODE)) {
+            if (resultSet.next() && resultSet.getInt(1) != INTERLEAVED_AUTOINC_LOCK_MODE) {
+                logger.warning("innodb_autoinc_lock_mode is " + resultSet.getInt(1)
+                        + "; bulk inserts into AUTO_INCREMENT tables hold a table lock until they finish."
+                        + " Set innodb_autoinc_lock_mode=2 in the server configuration to avoid it.");
+            }
+        } catch (SQLException e) {
+            logger.fine("Could not read innodb_autoinc_lock_mode: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restores the settings that were replaced.
+     */
+    interface Session extends AutoCloseable {
+        @Override
+        void close() throws SQLException;
+    }
+}
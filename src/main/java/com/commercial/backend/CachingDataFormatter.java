@@ -0,0 +1,222 @@
+package com.commercial.backend;
+
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFCellStyle;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.ExcelStyleDateFormatter;
+import org.apache.poi.ss.util.NumberToTextConverter;
+import org.apache.poi.util.LocaleUtil;
+
+import java.math.BigDecimal;
+import java.text.DecimalFormatSymbols;
+import java.text.Format;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link DataFormatter} that resolves each cell format once and formats every value through
+ * the resolved format.
+ *
+ * <p>The plain formatter works out for every cell again whether the format is a date and looks
+ * up the Java format for the format string, although a sheet only uses a few dozen formats.
+ * Here every format, keyed by its index and checked against its format string, is resolved on
+ * first use: whether it is a date format, whether it is General and the {@link Format} the
+ * superclass builds for it. Values are then formatted through that format the same way the
+ * superclass does, so the output is the same as without caching; whole numbers in the General
+ * and text formats are written directly.</p>
+ *
+ * <p>Formats with several sections or conditions are formatted by a different class for every
+ * value, and go to the superclass as before.</p>
+ *
+ * <p>Like {@code DataFormatter} an instance is not thread-safe.</p>
+ */
+class CachingDataFormatter extends DataFormatter {
+
+    private static final int MAX_FORMAT_INDEX = 4096;
+    private static final Pattern EXPONENT = Pattern.compile("E(\\d)");
+
+    private final boolean asciiIntegers;
+    private CellFormat[] formats = new CellFormat[256];
+
+    private HSSFWorkbook scratchWorkbook;
+    private HSSFCell scratchCell;
+    private final Map<String, HSSFCellStyle> scratchStyles = new HashMap<>();
+
+    private long lookups;
+    private long hits;
+
+    CachingDataFormatter() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(LocaleUtil.getUserLocale());
+        this.asciiIntegers = symbols.getZeroDigit() == '0' && symbols.getMinusSign() == '-';
+    }
+
+    @Override
+    public String formatRawCellContents(double value, int formatIndex, String formatString, boolean use1904Windowing) {
+        CellFormat format = use1904Windowing ? null : resolve(formatIndex, formatString);
+        if (format == null || format.isUnbuiltDate(value)) {
+            return super.formatRawCellContents(value, formatIndex, formatString, use1904Windowing);
+        }
+        if (format.date && DateUtil.isValidExcelDate(value)) return formatDate(format, value);
+        if (isGeneralInteger(format, value)) return Long.toString((long) value);
+
+        Format numberFormat = format.javaFormat(value);
+        if (numberFormat == null) return String.valueOf(value);
+        String text = NumberToTextConverter.toText(value);
+        String formatted = text.indexOf('E') > -1 ? numberFormat.format(value) : numberFormat.format(new BigDecimal(text));
+        if (format.completesExponent && formatted.contains("E") && !formatted.contains("E-")) {
+            formatted = formatted.replaceFirst("E", "E+");
+        }
+        return formatted;
+    }
+
+    /**
+     * Formats a number the way {@link #formatCellValue} formats a numeric cell of a loaded .xls
+     * workbook with this format. That path rounds long numbers and writes exponents slightly
+     * differently from {@link #formatRawCellContents}.
+     */
+    String formatNumericCell(double value, int formatIndex, String formatString) {
+        CellFormat format = resolve(formatIndex, formatString);
+        if (format == null || format.isUnbuiltDate(value)) {
+            return formatThroughCell(value, formatString);
+        }
+        if (format.date && DateUtil.isValidExcelDate(value)) return formatDate(format, value);
+        if (isGeneralInteger(format, value)) return Long.toString((long) value);
+
+        Format numberFormat = format.javaFormat(value);
+        if (numberFormat == null) return Double.toString(value);
+        String formatted;
+        try {
+            formatted = numberFormat.format(BigDecimal.valueOf(value));
+        } catch (NumberFormatException e) {
+            formatted = numberFormat.format(value);
+        }
+        return EXPONENT.matcher(formatted).replaceFirst("E+$1");
+    }
+
+    /**
+     * Values formatted through this formatter, not counting formats that could not be cached.
+     */
+    long getLookups() {
+        return lookups;
+    }
+
+    /**
+     * Lookups that reused a format resolved for an earlier value.
+     */
+    long getHits() {
+        return hits;
+    }
+
+    private String formatDate(CellFormat format, double value) {
+        Format dateFormat = format.javaFormat(value);
+        if (dateFormat == null) {
+            return super.formatRawCellContents(value, format.index, format.formatString, false);
+        }
+        if (dateFormat instanceof ExcelStyleDateFormatter excelStyleDateFormatter) {
+            excelStyleDateFormatter.setDateToBeFormatted(value);
+        }
+        return dateFormat.format(DateUtil.getJavaDate(value, false));
+    }
+
+    // General prints whole numbers below 1E11 without grouping or decimals; zero keeps its sign
+    private boolean isGeneralInteger(CellFormat format, double value) {
+        return format.general && asciiIntegers && value == Math.rint(value) && value != 0 && Math.abs(value) < 1E11;
+    }
+
+    private String formatThroughCell(double value, String formatString) {
+        scratchCell(value, formatString);
+        return formatCellValue(scratchCell);
+    }
+
+    /**
+     * A cell of a scratch workbook carrying the value and format, for the superclass methods
+     * that only take a cell.
+     */
+    private HSSFCell scratchCell(double value, String formatString) {
+        if (scratchCell == null) {
+            scratchWorkbook = new HSSFWorkbook();
+            scratchCell = scratchWorkbook.createSheet().createRow(0).createCell(0);
+        }
+        HSSFCellStyle style = scratchStyles.computeIfAbsent(formatString, format -> {
+            HSSFCellStyle cellStyle = scratchWorkbook.createCellStyle();
+            cellStyle.setDataFormat(scratchWorkbook.createDataFormat().getFormat(format));
+            return cellStyle;
+        });
+        scratchCell.setCellStyle(style);
+        scratchCell.setCellValue(value);
+        return scratchCell;
+    }
+
+    /**
+     * The resolved format for the index, or null when the format cannot be cached.
+     */
+    private CellFormat resolve(int formatIndex, String formatString) {
+        if (formatString == null || formatIndex < 0 || formatIndex >= MAX_FORMAT_INDEX) return null;
+
+        if (formatIndex >= formats.length) {
+            CellFormat[] grown = new CellFormat[Math.max(formatIndex + 1, formats.length * 2)];
+            System.arraycopy(formats, 0, grown, 0, formats.length);
+            formats = grown;
+        }
+        CellFormat format = formats[formatIndex];
+        if (format == null || (format.formatString != formatString && !format.formatString.equals(formatString))) {
+            format = new CellFormat(formatIndex, formatString);
+            formats[formatIndex] = format;
+        } else if (!format.perValue) {
+            hits++;
+        }
+        if (format.perValue) return null;
+        lookups++;
+        return format;
+    }
+
+    private final class CellFormat {
+
+        final int index;
+        final String formatString;
+        final boolean date;
+        final boolean general;
+        final boolean perValue;
+        // General and scientific formats get the '+' Java leaves out of positive exponents
+        final boolean completesExponent;
+        private Format javaFormat;
+        private boolean javaFormatResolved;
+
+        CellFormat(int index, String formatString) {
+            this.index = index;
+            this.formatString = formatString;
+            this.date = DateUtil.isADateFormat(index, formatString);
+            this.general = ("General".equalsIgnoreCase(formatString) || "@".equals(formatString)) && !date;
+            // DataFormatter hands formats with several sections or conditions to CellFormat per value
+            int section = formatString.indexOf(';');
+            this.perValue = section >= 0 && (section != formatString.lastIndexOf(';') || formatString.indexOf('[') >= 0);
+            String lowerCase = formatString.toLowerCase(Locale.ROOT);
+            this.completesExponent = lowerCase.contains("general") || lowerCase.contains("e+0");
+        }
+
+        /**
+         * True for a value that is no valid date in a date format whose format is not built yet.
+         * The superclass formats such a value as a number, through the date format once it has
+         * built one for an earlier value, so it cannot be resolved from this value.
+         */
+        boolean isUnbuiltDate(double value) {
+            return date && !javaFormatResolved && !DateUtil.isValidExcelDate(value);
+        }
+
+        /**
+         * The format the superclass builds for the format string, built on first use. Date
+         * formats are only built for a valid date, as the superclass does.
+         */
+        Format javaFormat(double value) {
+            if (!javaFormatResolved) {
+                javaFormat = createFormat(scratchCell(value, formatString.replace("\\%", "'%'")));
+                javaFormatResolved = true;
+            }
+            return javaFormat;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.commercial.backend;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the generator JAR that writes the file for the CICs, either as a separate JVM or inside
+ * this one.
+ *
+ * <p>In process mode ({@code jar.run.mode=process}) every run forks {@code java -jar} with the
+ * configuration as environment variables, and so pays for a JVM and a Spring startup. In
+ * in-process mode the generator is loaded through a class loader of its own, which is kept
+ * between runs and only replaced when the JAR changes, and is started with the same
+ * configuration as command line properties. A Spring Boot generator runs without a web server
+ * and its context is closed once its runners are done; any other main class is called as it
+ * is and must return instead of exiting the JVM.</p>
+ *
+ * <p>A class loader cannot read the nested JARs of a Spring Boot fat JAR, so in-process mode
+ * needs the plain JAR of the generator classes and its libraries in
+ * {@code jar.in-process.lib-dir}.</p>
+ */
+@Service
+public class CicGeneratorRunner {
+
+    private static final Logger logger = Logger.getLogger(CicGeneratorRunner.class.getName());
+    private static final String SPRING_APPLICATION = "org.springframework.boot.SpringApplication";
+    private static final String SPRING_BOOT_APPLICATION = "org.springframework.boot.autoconfigure.SpringBootApplication";
+    private static final List<String> IN_PROCESS_ARGUMENTS = List.of(
+            "--spring.main.web-application-type=none",
+            "--spring.main.register-shutdown-hook=false",
+            "--spring.main.banner-mode=off");
+    // Connector/J 8 and 5.1
+    private static final List<String> CLEANUP_THREAD_CLASSES = List.of(
+            "com.mysql.cj.jdbc.AbandonedConnectionCleanupThread",
+            "com.mysql.jdbc.AbandonedConnectionCleanupThread");
+
+    @Autowired
+    private CommercialConstants commercialConstants;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Value("${jar.file.path}")
+    private String jarFilePath;
+
+    @Value("${jar.run.mode:process}")
+    private String runMode;
+
+    @Value("${jar.in-process.lib-dir:}")
+    private String libDir;
+
+    @Value("${jar.in-process.main-class:}")
+    private String mainClassName;
+
+    private GeneratorLoader loader;
+
+    /**
+     * Runs the generator with the datasource settings of the config folder's
+     * application.properties and the headSeg properties.
+     *
+     * @param run name of the run in the {@code jar.run} metrics
+     * @return whether the generator completed successfully
+     */
+    public boolean run(String run, Properties properties, Properties headSegProperties)
+            throws IOException, InterruptedException {
+        boolean inProcess = "in-process".equalsIgnoreCase(runMode);
+        long startTime = System.nanoTime();
+        boolean successful = false;
+        try {
+            successful = inProcess ? runInProcess(properties, headSegProperties)
+                    : runProcess(properties, headSegProperties);
+        } finally {
+            pipelineMetrics.recordJarRun(run, successful, System.nanoTime() - startTime);
+        }
+        logger.info("Generator run " + run + (inProcess ? " in process" : "") + (successful ? " completed" : " failed")
+                + " in " + (System.nanoTime() - startTime) / 1_000_000 + " ms");
+        return successful;
+    }
+
+    private boolean runProcess(Properties properties, Properties headSegProperties)
+            throws IOException, InterruptedException {
+        ProcessBuilder processBuilder = new ProcessBuilder(commercialConstants.getJavaCommand(), commercialConstants.getJarOption(), jarFilePath);
+        Map<String, String> environment = processBuilder.environment();
+        environment.put(commercialConstants.getSpringDatasourceEnvUrl(), properties.getProperty(commercialConstants.getSpringDatasourceUrlProperty()));
+        environment.put(commercialConstants.getSpringDatasourceEnvUsername(), properties.getProperty(commercialConstants.getSpringDatasourceUsernameProperty()));
+        environment.put(commercialConstants.getSpringDatasourceEnvPassword(), properties.getProperty(commercialConstants.getSpringDatasourcePasswordProperty()));
+        environment.put(commercialConstants.getSpringJpaHibernateDdlAutoEnv(), properties.getProperty(commercialConstants.getSpringJpaHibernateDdlAutoProperty()));
+
+        // Add additional properties from headSeg.properties to the environment
+        for (String propertyName : headSegProperties.stringPropertyNames()) {
+            environment.put(propertyName, headSegProperties.getProperty(propertyName));
+        }
+
+        Process process = processBuilder.start();
+        return process.waitFor() == 0;
+    }
+
+    /**
+     * The generator keeps its state in static fields and tables of its own, so in-process runs
+     * take turns.
+     */
+    private synchronized boolean runInProcess(Properties properties, Properties headSegProperties) throws IOException {
+        // Command line properties take precedence over everything the generator reads itself
+        Map<String, String> configuration = new LinkedHashMap<>();
+        for (String propertyName : List.of(commercialConstants.getSpringDatasourceUrlProperty(),
+                commercialConstants.getSpringDatasourceUsernameProperty(),
+                commercialConstants.getSpringDatasourcePasswordProperty(),
+                commercialConstants.getSpringJpaHibernateDdlAutoProperty())) {
+            String value = properties.getProperty(propertyName);
+            if (value != null) configuration.put(propertyName, value);
+        }
+        for (String propertyName : headSegProperties.stringPropertyNames()) {
+            configuration.put(propertyName, headSegProperties.getProperty(propertyName));
+        }
+        List<String> arguments = new ArrayList<>();
+        configuration.forEach((name, value) -> arguments.add("--" + name + "=" + value));
+
+        GeneratorLoader generator = loader();
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(generator.classLoader());
+        try {
+            generator.run(arguments);
+            return true;
+        } catch (InvocationTargetException e) {
+            logger.log(Level.SEVERE, "Generator failed", e.getCause());
+            return false;
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot start the generator " + generator.mainClass().getName(), e);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Generator failed", e);
+            return false;
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+        }
+    }
+
+    /**
+     * The class loader of the generator, created again only when the JAR was replaced.
+     */
+    private GeneratorLoader loader() throws IOException {
+        File jarFile = new File(unquote(jarFilePath));
+        if (loader != null && loader.isCurrent(jarFile)) return loader;
+
+        if (loader != null) {
+            loader.close();
+            loader = null;
+        }
+        loader = GeneratorLoader.open(jarFile, libDir.isBlank() ? null : new File(unquote(libDir)), mainClassName);
+        logger.info("Loaded generator " + loader.mainClass().getName() + " from " + jarFile);
+        return loader;
+    }
+
+    private static String unquote(String path) {
+        String trimmed = path.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+            return trimmed.substring(1, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+
+    @PreDestroy
+    synchronized void close() throws IOException {
+        if (loader != null) loader.close();
+        loader = null;
+    }
+
+    private record GeneratorLoader(File jarFile, long lastModified, GeneratorClassLoader classLoader, Class<?> mainClass) {
+
+        /**
+         * Loads the generator and its libraries apart from this application, with only the
+         * platform classes shared, so its Spring and JDBC driver versions cannot clash with ours.
+         */
+        static GeneratorLoader open(File jarFile, File libDir, String mainClassName) throws IOException {
+            if (!jarFile.isFile()) {
+                throw new IOException("Generator JAR not found: " + jarFile);
+            }
+            List<URL> urls = new ArrayList<>();
+            urls.add(jarFile.toURI().toURL());
+            if (libDir != null) {
+                File[] libraries = libDir.listFiles((dir, name) -> name.endsWith(".jar"));
+                if (libraries == null) {
+                    throw new IOException("Generator library folder not found: " + libDir);
+                }
+                Arrays.sort(libraries);
+                for (File library : libraries) {
+                    urls.add(library.toURI().toURL());
+                }
+            }
+
+            String className = mainClassName.isBlank() ? mainClassName(jarFile) : mainClassName;
+            GeneratorClassLoader classLoader = new GeneratorClassLoader(urls.toArray(URL[]::new));
+            try {
+                return new GeneratorLoader(jarFile, jarFile.lastModified(), classLoader,
+                        Class.forName(className, false, classLoader));
+            } catch (ClassNotFoundException | LinkageError e) {
+                classLoader.close();
+                throw new IOException("Cannot load the generator class " + className + " from " + jarFile
+                        + "; in-process runs need the plain JAR and its libraries in jar.in-process.lib-dir", e);
+            }
+        }
+
+        /**
+         * The application class of a Spring Boot JAR, otherwise its Main-Class.
+         */
+        private static String mainClassName(File jarFile) throws IOException {
+            try (JarFile jar = new JarFile(jarFile)) {
+                Manifest manifest = jar.getManifest();
+                if (manifest != null) {
+                    Attributes attributes = manifest.getMainAttributes();
+                    String startClass = attributes.getValue("Start-Class");
+                    if (startClass != null) return startClass;
+                    String mainClass = attributes.getValue(Attributes.Name.MAIN_CLASS);
+                    if (mainClass != null) return mainClass;
+                }
+            }
+            throw new IOException("No Main-Class in the manifest of " + jarFile + ", set jar.in-process.main-class");
+        }
+
+        boolean isCurrent(File file) {
+            return jarFile.equals(file) && lastModified == file.lastModified();
+        }
+
+        /**
+         * Runs the generator to completion. A Spring Boot application is started directly, so
+         * its context can be closed afterwards; a failing runner surfaces as the
+         * {@link InvocationTargetException}.
+         */
+        void run(List<String> arguments) throws ReflectiveOperationException {
+            if (!isSpringBootApplication()) {
+                mainClass.getMethod("main", String[].class).invoke(null, (Object) arguments.toArray(String[]::new));
+                return;
+            }
+            List<String> springArguments = new ArrayList<>(IN_PROCESS_ARGUMENTS);
+            springArguments.addAll(arguments);
+            String[] args = springArguments.toArray(String[]::new);
+            Object context = Class.forName(SPRING_APPLICATION, true, classLoader)
+                    .getMethod("run", Class.class, String[].class)
+                    .invoke(null, mainClass, args);
+            // The context is a ConfigurableApplicationContext of the generator's Spring, but Closeable
+            try {
+                ((AutoCloseable) context).close();
+            } catch (Exception e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+
+        private boolean isSpringBootApplication() {
+            for (Annotation annotation : mainClass.getAnnotations()) {
+                if (annotation.annotationType().getName().equals(SPRING_BOOT_APPLICATION)) return true;
+            }
+            return false;
+        }
+
+        void close() throws IOException {
+            classLoader.releaseDrivers();
+            classLoader.close();
+        }
+    }
+
+    private static final class GeneratorClassLoader extends URLClassLoader {
+
+        GeneratorClassLoader(URL[] urls) {
+            super("cic-generator", urls, ClassLoader.getPlatformClassLoader());
+        }
+
+        /**
+         * Deregisters the JDBC drivers the generator registered and stops the cleanup thread
+         * of its Connector/J. Both hold on to this loader, which would otherwise keep every
+         * class of the replaced generator in memory.
+         */
+        void releaseDrivers() {
+            String cleanupClassName = GeneratorDriverCleanup.class.getName();
+            try (InputStream in = CicGeneratorRunner.class.getResourceAsStream(
+                    GeneratorDriverCleanup.class.getSimpleName() + ".class")) {
+                if (in == null) throw new IOException(cleanupClassName + " not found");
+                byte[] bytes = in.readAllBytes();
+                Constructor<?> constructor = defineClass(cleanupClassName, bytes, 0, bytes.length).getDeclaredConstructor();
+                constructor.setAccessible(true);
+                ((Runnable) constructor.newInstance()).run();
+            } catch (IOException | ReflectiveOperationException | LinkageError e) {
+                logger.log(Level.WARNING, "Cannot deregister the JDBC drivers of the generator", e);
+            }
+
+            // checkedShutdown only stops the thread for a caller with the same context class loader
+            Thread thread = Thread.currentThread();
+            ClassLoader contextClassLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader(this);
+            try {
+                for (String className : CLEANUP_THREAD_CLASSES) {
+                    // Loading the class would start the thread
+                    if (findLoadedClass(className) == null) continue;
+                    try {
+                        loadClass(className).getMethod("checkedShutdown").invoke(null);
+                    } catch (ReflectiveOperationException e) {
+                        logger.log(Level.WARNING, "Cannot stop " + className + " of the generator", e);
+                    }
+                }
+            } finally {
+                thread.setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+}
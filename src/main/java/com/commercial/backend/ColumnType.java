@@ -0,0 +1,150 @@
+package com.commercial.backend;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.List;
+
+/**
+ * SQL type chosen for an uploaded CSV column, and the conversion of raw CSV values into
+ * something MySQL accepts for that type.
+ */
+final class ColumnType {
+
+    enum Kind { BIGINT, DECIMAL, DATE, VARCHAR, TEXT }
+
+    static final int DEFAULT_VARCHAR_LENGTH = 80;
+
+    static final List<DateTimeFormatter> DATE_FORMATS = List.of(
+            DateTimeFormatter.ofPattern("uuuu-MM-dd").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("dd-MM-uuuu").withResolverStyle(ResolverStyle.STRICT),
+            DateTimeFormatter.ofPattern("dd/MM/uuuu").withResolverStyle(ResolverStyle.STRICT));
+
+    private final Kind kind;
+    private final int length;
+    private final int scale;
+    private final DateTimeFormatter dateFormat;
+
+    private ColumnType(Kind kind, int length, int scale, DateTimeFormatter dateFormat) {
+        this.kind = kind;
+        this.length = length;
+        this.scale = scale;
+        this.dateFormat = dateFormat;
+    }
+
+    static ColumnType bigint() {
+        return new ColumnType(Kind.BIGINT, 0, 0, null);
+    }
+
+    static ColumnType decimal(int precision, int scale) {
+        return new ColumnType(Kind.DECIMAL, precision, scale, null);
+    }
+
+    static ColumnType date(DateTimeFormatter dateFormat) {
+        return new ColumnType(Kind.DATE, 0, 0, dateFormat);
+    }
+
+    static ColumnType varchar(int length) {
+        return new ColumnType(Kind.VARCHAR, length, 0, null);
+    }
+
+    static ColumnType text() {
+        return new ColumnType(Kind.TEXT, 0, 0, null);
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * True when values can be passed to the database exactly as they were read.
+     */
+    boolean isPassThrough() {
+        return kind == Kind.VARCHAR || kind == Kind.TEXT;
+    }
+
+    String sqlDefinition() {
+        return switch (kind) {
+            case BIGINT -> "BIGINT";
+            case DECIMAL -> "DECIMAL(" + length + "," + scale + ")";
+            case DATE -> "DATE";
+            case VARCHAR -> "VARCHAR(" + length + ")";
+            case TEXT -> "TEXT";
+        };
+    }
+
+    /**
+     * An expression converting the text {@code expression} to this type, for comparing keys
+     * recorded as text with the column. Comparing a BIGINT or DATE column with text directly
+     * would compare as doubles or as strings.
+     */
+    String castFromText(String expression) {
+        return switch (kind) {
+            case BIGINT -> "CAST(" + expression + " AS SIGNED)";
+            case DECIMAL, DATE -> "CAST(" + expression + " AS " + sqlDefinition() + ")";
+            case VARCHAR, TEXT -> expression;
+        };
+    }
+
+    /**
+     * The value {@link #normalize(String) normalized} and spelled the one way MySQL would return
+     * it, so values the column stores as equal are also equal as text, e.g. {@code 1.5} and
+     * {@code 1.50} in a DECIMAL(10,2) column.
+     */
+    String canonicalValue(String value) {
+        String normalized = normalize(value);
+        if (normalized == null) return null;
+        return switch (kind) {
+            case BIGINT -> Long.toString(Long.parseLong(normalized));
+            case DECIMAL -> new BigDecimal(normalized).setScale(scale).toPlainString();
+            default -> normalized;
+        };
+    }
+
+    /**
+     * Converts a sanitized CSV value for binding. Empty values of non-text columns become NULL.
+     *
+     * @throws IllegalArgumentException when the value does not fit the inferred type
+     */
+    String normalize(String value) {
+        if (value == null) return null;
+        if (kind == Kind.VARCHAR) {
+            if (value.length() > length) {
+                throw new IllegalArgumentException("value longer than " + sqlDefinition() + ": " + value);
+            }
+            return value;
+        }
+        if (kind == Kind.TEXT) return value;
+        if (value.isEmpty()) return null;
+
+        switch (kind) {
+            case BIGINT -> {
+                if (!ColumnTypeInference.isInteger(value)) {
+                    throw new IllegalArgumentException("not a BIGINT: " + value);
+                }
+                return value;
+            }
+            case DECIMAL -> {
+                if (!ColumnTypeInference.isDecimal(value)
+                        || ColumnTypeInference.integerDigits(value) > length - scale
+                        || ColumnTypeInference.fractionDigits(value) > scale) {
+                    throw new IllegalArgumentException("not a " + sqlDefinition() + ": " + value);
+                }
+                return value;
+            }
+            default -> {
+                try {
+                    return LocalDate.parse(value, dateFormat).toString();
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("not a DATE: " + value);
+                }
+            }
+        }
+    }
+}
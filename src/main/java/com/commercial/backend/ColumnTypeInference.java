@@ -0,0 +1,170 @@
+package com.commercial.backend;
+
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Picks the narrowest column types that fit a sample of CSV rows.
+ *
+ * <p>Integers become BIGINT, numbers with a fraction DECIMAL(p,s), values that all parse with one
+ * of {@link ColumnType#DATE_FORMATS} DATE, and everything else VARCHAR of twice the longest
+ * sampled value, and at least VARCHAR(80), since later rows may hold longer values. Numbers with
+ * leading zeros are kept as text so identifiers keep their padding. Columns without any sampled
+ * value stay VARCHAR(80).</p>
+ */
+class ColumnTypeInference {
+
+    private static final int MAX_BIGINT_DIGITS = 18;
+    private static final int MAX_DECIMAL_PRECISION = 65;
+    private static final int MAX_DECIMAL_SCALE = 30;
+    // Later rows may carry larger amounts than the sample, so DECIMAL keeps two spare integer digits
+    private static final int DECIMAL_INTEGER_HEADROOM = 2;
+    // Later rows may carry longer text than the sample as well
+    private static final int VARCHAR_HEADROOM_FACTOR = 2;
+    private static final int VARCHAR_STEP = 16;
+    private static final int MAX_VARCHAR_LENGTH = 2048;
+
+    private final ColumnStats[] columns;
+    private int sampledRows;
+
+    ColumnTypeInference(int columnCount) {
+        columns = new ColumnStats[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = new ColumnStats();
+        }
+    }
+
+    void observe(String[] row) {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].observe(i < row.length ? row[i] : null);
+        }
+        sampledRows++;
+    }
+
+    int getSampledRows() {
+        return sampledRows;
+    }
+
+    ColumnType[] inferTypes() {
+        ColumnType[] types = new ColumnType[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = columns[i].toColumnType();
+        }
+        return types;
+    }
+
+    static boolean isInteger(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        int digits = value.length() - start;
+        if (digits == 0 || digits > MAX_BIGINT_DIGITS) return false;
+        if (digits > 1 && value.charAt(start) == '0') return false;
+        for (int i = start; i < value.length(); i++) {
+            if (!isDigit(value.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Plain decimal notation with an optional fraction, e.g. {@code -1250.75}.
+     */
+    static boolean isDecimal(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        int point = value.indexOf('.');
+        int integerEnd = point < 0 ? value.length() : point;
+        int integerDigits = integerEnd - start;
+
+        if (integerDigits == 0) return false;
+        if (integerDigits > 1 && value.charAt(start) == '0') return false;
+        for (int i = start; i < integerEnd; i++) {
+            if (!isDigit(value.charAt(i))) return false;
+        }
+        if (point < 0) return true;
+        if (point == value.length() - 1) return false;
+        for (int i = point + 1; i < value.length(); i++) {
+            if (!isDigit(value.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    static int integerDigits(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        int point = value.indexOf('.');
+        return (point < 0 ? value.length() : point) - start;
+    }
+
+    static int fractionDigits(String value) {
+        int point = value.indexOf('.');
+        return point < 0 ? 0 : value.length() - point - 1;
+    }
+
+    private static boolean isDigit(char character) {
+        return character >= '0' && character <= '9';
+    }
+
+    private static final class ColumnStats {
+        private int values;
+        private int maxLength;
+        private boolean allIntegers = true;
+        private boolean allDecimals = true;
+        private int maxIntegerDigits;
+        private int maxFractionDigits;
+        private DateTimeFormatter dateFormat;
+        private boolean allDates = true;
+
+        void observe(String value) {
+            if (value == null || value.isEmpty()) return;
+
+            values++;
+            maxLength = Math.max(maxLength, value.length());
+
+            if (allIntegers && !isInteger(value)) allIntegers = false;
+            if (allDecimals) {
+                if (isDecimal(value)) {
+                    maxIntegerDigits = Math.max(maxIntegerDigits, integerDigits(value));
+                    maxFractionDigits = Math.max(maxFractionDigits, fractionDigits(value));
+                } else {
+                    allDecimals = false;
+                }
+            }
+            if (allDates) observeDate(value);
+        }
+
+        private void observeDate(String value) {
+            if (dateFormat != null) {
+                allDates = parses(dateFormat, value);
+                return;
+            }
+            for (DateTimeFormatter format : ColumnType.DATE_FORMATS) {
+                if (parses(format, value)) {
+                    dateFormat = format;
+                    return;
+                }
+            }
+            allDates = false;
+        }
+
+        private static boolean parses(DateTimeFormatter format, String value) {
+            try {
+                format.parse(value);
+                return true;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+
+        ColumnType toColumnType() {
+            if (values == 0) return ColumnType.varchar(ColumnType.DEFAULT_VARCHAR_LENGTH);
+            if (allIntegers) return ColumnType.bigint();
+            if (allDecimals && maxFractionDigits <= MAX_DECIMAL_SCALE
+                    && maxIntegerDigits + maxFractionDigits <= MAX_DECIMAL_PRECISION) {
+                int precision = Math.min(MAX_DECIMAL_PRECISION, maxIntegerDigits + DECIMAL_INTEGER_HEADROOM + maxFractionDigits);
+                return ColumnType.decimal(precision, maxFractionDigits);
+            }
+            if (allDates) return ColumnType.date(dateFormat);
+
+            int length = (maxLength * VARCHAR_HEADROOM_FACTOR + VARCHAR_STEP - 1) / VARCHAR_STEP * VARCHAR_STEP;
+            length = Math.max(length, ColumnType.DEFAULT_VARCHAR_LENGTH);
+            return length > MAX_VARCHAR_LENGTH ? ColumnType.text() : ColumnType.varchar(length);
+        }
+    }
+}
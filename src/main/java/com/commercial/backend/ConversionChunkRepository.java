@@ -0,0 +1,168 @@
+package com.commercial.backend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Key ranges of a chunked data conversion and the chunks of it that have completed.
+ *
+ * <p>A chunked conversion splits the borrowers into ranges of their key and runs each segment
+ * procedure once per range. Every completed chunk is recorded in {@code conversion_chunk} in
+ * the transaction of its procedure call, under a hash of the range plan. As long as the keys
+ * have not changed, a conversion that failed part way resumes with the chunks that are not
+ * recorded; a conversion that completes clears the records.</p>
+ */
+@Repository
+public class ConversionChunkRepository {
+
+    private static final String CREATE_CHUNK_TABLE = "CREATE TABLE IF NOT EXISTS conversion_chunk ("
+            + "plan_hash CHAR(64) NOT NULL, "
+            + "procedure_name VARCHAR(64) NOT NULL, "
+            + "chunk_index INT NOT NULL, "
+            + "first_key VARCHAR(255) NOT NULL, "
+            + "last_key VARCHAR(255) NOT NULL, "
+            + "completed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+            + "PRIMARY KEY (plan_hash, procedure_name, chunk_index))";
+    private static final String SELECT_COMPLETED_CHUNKS = "SELECT procedure_name, chunk_index FROM conversion_chunk "
+            + "WHERE plan_hash = ?";
+    private static final String INSERT_COMPLETED_CHUNK = "INSERT INTO conversion_chunk "
+            + "(plan_hash, procedure_name, chunk_index, first_key, last_key) VALUES (?, ?, ?, ?, ?)";
+    private static final String DELETE_CHUNKS = "DELETE FROM conversion_chunk";
+
+    @Autowired
+    @Qualifier("conversionDataSource")
+    private DataSource dataSource;
+
+    private volatile boolean tableCreated;
+
+    /**
+     * Splits the distinct keys of a table into ranges of at most {@code keysPerChunk} keys, in
+     * key order. The keys are read with a streaming result set.
+     */
+    List<KeyRange> planKeyRanges(String tableName, String keyColumn, int keysPerChunk) throws SQLException {
+        List<KeyRange> ranges = new ArrayList<>();
+        String query = "SELECT DISTINCT " + keyColumn + " FROM " + tableName
+                + " WHERE " + keyColumn + " IS NOT NULL ORDER BY " + keyColumn;
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(query,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            select.setFetchSize(Integer.MIN_VALUE);
+            try (ResultSet resultSet = select.executeQuery()) {
+                String firstKey = null;
+                String lastKey = null;
+                int keys = 0;
+                while (resultSet.next()) {
+                    lastKey = resultSet.getString(1);
+                    if (keys++ == 0) firstKey = lastKey;
+                    if (keys == keysPerChunk) {
+                        ranges.add(new KeyRange(ranges.size(), firstKey, lastKey));
+                        keys = 0;
+                    }
+                }
+                if (keys > 0) {
+                    ranges.add(new KeyRange(ranges.size(), firstKey, lastKey));
+                }
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Identifies a range plan, so chunks recorded for other keys are never taken as done.
+     */
+    static String planHash(String tableName, String keyColumn, List<KeyRange> ranges) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((tableName + '\u0000' + keyColumn).getBytes(StandardCharsets.UTF_8));
+            for (KeyRange range : ranges) {
+                digest.update(('\u0000' + range.firstKey() + '\u0000' + range.lastKey()).getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Chunks completed under the plan, as {@link #chunkKey} values.
+     */
+    Set<String> findCompletedChunks(String planHash) throws SQLException {
+        ensureTable();
+
+        Set<String> completed = new HashSet<>();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement select = connection.prepareStatement(SELECT_COMPLETED_CHUNKS)) {
+            select.setString(1, planHash);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    completed.add(chunkKey(resultSet.getString(1), resultSet.getInt(2)));
+                }
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Records a chunk as done. Call it in the transaction of the chunk's procedure call, so
+     * the record never exists without the chunk's data.
+     */
+    void saveCompletedChunk(Connection connection, String planHash, String procedureName, KeyRange range)
+            throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_COMPLETED_CHUNK)) {
+            insert.setString(1, planHash);
+            insert.setString(2, procedureName);
+            insert.setInt(3, range.index());
+            insert.setString(4, range.firstKey());
+            insert.setString(5, range.lastKey());
+            insert.executeUpdate();
+        }
+    }
+
+    void deleteChunks() throws SQLException {
+        ensureTable();
+
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate(DELETE_CHUNKS);
+        }
+    }
+
+    static String chunkKey(String procedureName, int chunkIndex) {
+        return procedureName + '#' + chunkIndex;
+    }
+
+    private void ensureTable() throws SQLException {
+        if (tableCreated) return;
+
+        synchronized (this) {
+            if (tableCreated) return;
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_CHUNK_TABLE);
+            }
+            tableCreated = true;
+        }
+    }
+
+    /**
+     * Keys from {@code firstKey} to {@code lastKey}, both included.
+     */
+    record KeyRange(int index, String firstKey, String lastKey) {
+    }
+}
@@ -0,0 +1,301 @@
+package com.commercial.backend;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Writes what the application logs during a data conversion to a log file of that run.
+ *
+ * <p>One handler on the {@code com.commercial} logger is installed for the lifetime of the
+ * application. It takes the records logged by the thread that opened a run and by the tasks that
+ * thread and its tasks hand to an executor {@linkplain #inCurrentRun(Executor) wrapped} for it,
+ * so an upload logging at the same time stays out of the run's log. It queues those records
+ * into a bounded queue, and a single
+ * writer thread formats them, tags them with the run id and writes them to
+ * {@code conversion-<run id>.log}; logging threads never wait for the disk. When the queue is
+ * full, records are dropped and counted instead. Only the files of the most recent runs are
+ * kept.</p>
+ */
+@Component
+public class ConversionRunLog {
+
+    private static final DateTimeFormatter RUN_ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final Pattern RUN_ID = Pattern.compile("\\d{8}-\\d{6}-\\d+");
+    private static final String FILE_PREFIX = "conversion-";
+    private static final String FILE_SUFFIX = ".log";
+    // The run the current thread works for
+    private static final ThreadLocal<Run> CURRENT_RUN = new ThreadLocal<>();
+
+    @Value("${conversion.log.dir:logs/conversion}")
+    private String logDir;
+
+    @Value("${conversion.log.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${conversion.log.retained-runs:20}")
+    private int retainedRuns;
+
+    // Held so the logger and its handler are not garbage collected
+    private final Logger applicationLogger = Logger.getLogger("com.commercial");
+    private final AtomicInteger sequence = new AtomicInteger();
+    private BlockingQueue<Entry> queue;
+    private RunHandler handler;
+    private Thread writer;
+    private volatile Run activeRun;
+
+    @PostConstruct
+    void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        handler = new RunHandler();
+        applicationLogger.addHandler(handler);
+        writer = new Thread(this::writeEntries, "conversion-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        applicationLogger.removeHandler(handler);
+        writer.interrupt();
+    }
+
+    /**
+     * Opens the log of a new run for the current thread. Runs write the same segment tables, so
+     * only one can be open.
+     *
+     * @throws IllegalStateException while another run is open
+     */
+    synchronized Run open() throws IOException {
+        if (activeRun != null) {
+            throw new IllegalStateException("Conversion run " + activeRun.id() + " is still running");
+        }
+        Path dir = Files.createDirectories(Paths.get(logDir));
+        String runId = LocalDateTime.now().format(RUN_ID_FORMAT) + "-" + sequence.incrementAndGet();
+        activeRun = new Run(runId, dir.resolve(FILE_PREFIX + runId + FILE_SUFFIX));
+        CURRENT_RUN.set(activeRun);
+        return activeRun;
+    }
+
+    /**
+     * The executor running each task in the run of the thread that hands it over, if any, so
+     * that what the task logs goes to that run's log as well.
+     */
+    static Executor inCurrentRun(Executor executor) {
+        return task -> {
+            Run run = CURRENT_RUN.get();
+            executor.execute(run == null ? task : () -> {
+                Run previous = CURRENT_RUN.get();
+                CURRENT_RUN.set(run);
+                try {
+                    task.run();
+                } finally {
+                    CURRENT_RUN.set(previous);
+                }
+            });
+        };
+    }
+
+    /**
+     * Ids of the runs whose logs are kept, latest first.
+     */
+    List<String> recentRuns() throws IOException {
+        Path dir = Paths.get(logDir);
+        if (!Files.isDirectory(dir)) return List.of();
+        List<String> runIds = new ArrayList<>();
+        for (Path file : runFiles(dir)) {
+            String name = file.getFileName().toString();
+            runIds.add(0, name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+        }
+        return runIds;
+    }
+
+    /**
+     * The log of a run as written so far, or null for an unknown run.
+     */
+    String read(String runId) throws IOException {
+        if (!RUN_ID.matcher(runId).matches()) return null;
+        Path file = Paths.get(logDir, FILE_PREFIX + runId + FILE_SUFFIX);
+        return Files.isRegularFile(file) ? Files.readString(file, StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Log of one run; closing it ends the run once its queued records are written.
+     */
+    public final class Run implements AutoCloseable {
+
+        private final String id;
+        private final Path file;
+        private final AtomicLong dropped = new AtomicLong();
+        // Set by the writer once the end marker is written; later records of the run are dropped
+        private boolean ended;
+
+        private Run(String id, Path file) {
+            this.id = id;
+            this.file = file;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        @Override
+        public void close() {
+            if (CURRENT_RUN.get() == this) {
+                CURRENT_RUN.remove();
+            }
+            synchronized (ConversionRunLog.this) {
+                activeRun = null;
+            }
+            try {
+                // The end marker must not be dropped, or the file would stay open
+                queue.put(new Entry(this, null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private record Entry(Run run, LogRecord record) {
+    }
+
+    private final class RunHandler extends Handler {
+
+        RunHandler() {
+            setFormatter(new SimpleFormatter());
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            Run run = CURRENT_RUN.get();
+            if (run == null || run != activeRun || !isLoggable(record)) return;
+            if (!queue.offer(new Entry(run, record))) {
+                run.dropped.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private void writeEntries() {
+        Run run = null;
+        BufferedWriter out = null;
+        try {
+            while (true) {
+                Entry entry = queue.take();
+                // A record that was queued while its run was closing; writing it would reopen the file
+                if (entry.run().ended) continue;
+                if (entry.run() != run) {
+                    closeQuietly(out, run);
+                    run = entry.run();
+                    out = Files.newBufferedWriter(run.file, StandardCharsets.UTF_8);
+                }
+                if (entry.record() == null) {
+                    run.ended = true;
+                    closeQuietly(out, run);
+                    out = null;
+                    run = null;
+                    deleteOldRuns();
+                    continue;
+                }
+
+                out.write('[');
+                out.write(run.id);
+                out.write("] ");
+                out.write(handler.getFormatter().format(entry.record()));
+                if (queue.isEmpty()) out.flush();
+            }
+        } catch (InterruptedException e) {
+            closeQuietly(out, run);
+        } catch (IOException | UncheckedIOException e) {
+            // Logging through JUL here would queue more records for the broken run
+            System.err.println("Conversion run log stopped: " + e.getMessage());
+            closeQuietly(out, run);
+        }
+    }
+
+    private void closeQuietly(BufferedWriter out, Run run) {
+        if (out == null) return;
+        try (out) {
+            long dropped = run.dropped.get();
+            if (dropped > 0) {
+                out.write("[" + run.id + "] " + dropped + " log records dropped, the log queue was full"
+                        + System.lineSeparator());
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot close the log of conversion run " + run.id + ": " + e.getMessage());
+        }
+    }
+
+    private void deleteOldRuns() {
+        try {
+            List<Path> files = runFiles(Paths.get(logDir));
+            for (int i = 0; i < files.size() - retainedRuns; i++) {
+                Files.deleteIfExists(files.get(i));
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot delete old conversion run logs: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run log files, oldest first by the start time and sequence number in their run ids.
+     */
+    private static List<Path> runFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> {
+                        String name = file.getFileName().toString();
+                        return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)
+                                && RUN_ID.matcher(name.substring(FILE_PREFIX.length(),
+                                        name.length() - FILE_SUFFIX.length())).matches();
+                    })
+                    .sorted(Comparator.comparing(ConversionRunLog::startTime).thenComparingLong(ConversionRunLog::sequence))
+                    .toList();
+        }
+    }
+
+    private static String startTime(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(FILE_PREFIX.length(), Math.min(name.length(), FILE_PREFIX.length() + 15));
+    }
+
+    private static long sequence(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(FILE_PREFIX.length() + 16, name.length() - FILE_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.commercial.backend;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The data rows of an upload: rows already read while sampling the schema come first,
+ * then the remaining records straight from the tokenizer. Every row is counted on the upload job.
+ */
+class CsvRows {
+
+    private final Iterator<String[]> bufferedRows;
+    private final CsvTokenizer tokenizer;
+    private final UploadJob job;
+    private String[] bufferedRow;
+    private long rowNumber;
+
+    CsvRows(List<String[]> bufferedRows, CsvTokenizer tokenizer, UploadJob job) {
+        this.bufferedRows = bufferedRows.iterator();
+        this.tokenizer = tokenizer;
+        this.job = job;
+    }
+
+    boolean next() throws IOException {
+        if (bufferedRows.hasNext()) {
+            bufferedRow = bufferedRows.next();
+        } else {
+            bufferedRow = null;
+            if (!tokenizer.nextRecord()) return false;
+        }
+        rowNumber++;
+        job.rowParsed();
+        return true;
+    }
+
+    /**
+     * Skips the rows up to and including row {@code rowNumber}, which ended at {@code charOffset}
+     * in the tokenizer's input. Sampled rows are dropped from the buffer, later ones are skipped
+     * in the input without tokenizing them.
+     */
+    void resumeAfter(long rowNumber, long charOffset) throws IOException {
+        while (this.rowNumber < rowNumber && bufferedRows.hasNext()) {
+            bufferedRows.next();
+            this.rowNumber++;
+        }
+        if (this.rowNumber < rowNumber) {
+            tokenizer.skipTo(charOffset);
+            this.rowNumber = rowNumber;
+        }
+    }
+
+    /**
+     * True when the current row was read during sampling and is only available as strings.
+     */
+    boolean isBuffered() {
+        return bufferedRow != null;
+    }
+
+    String[] bufferedRow() {
+        return bufferedRow;
+    }
+
+    CsvTokenizer tokenizer() {
+        return tokenizer;
+    }
+
+    int fieldCount() {
+        return bufferedRow != null ? bufferedRow.length : tokenizer.fieldCount();
+    }
+
+    String field(int index) {
+        return bufferedRow != null ? bufferedRow[index] : tokenizer.field(index);
+    }
+
+    /**
+     * Where the row after the current one starts in the tokenizer's input.
+     */
+    long getCharOffset() {
+        return tokenizer.getCharOffset();
+    }
+
+    /**
+     * One-based position of the current row below the header.
+     */
+    long getRowNumber() {
+        return rowNumber;
+    }
+}
@@ -0,0 +1,123 @@
+package com.commercial.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the CSV rows of one sheet in a temp file while the sheet is parsed.
+ *
+ * <p>A sheet is written as wide as its last column that holds a value in any row, so the width
+ * is only known once the sheet has been read. Each row is therefore spilled without its
+ * trailing empty cells, together with its field count, and padded with empty fields to the
+ * sheet width when it is copied out.</p>
+ */
+class CsvSheetSpill implements Closeable {
+
+    private static final int PADDING_CHUNK = 256;
+
+    private final Charset charset;
+    private final byte[] lineSeparator;
+    private final Path file;
+    private final DataOutputStream out;
+    private int width;
+    private long rowCount;
+    private boolean closed;
+
+    CsvSheetSpill(Charset charset) throws IOException {
+        this.charset = charset;
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+        this.file = Files.createTempFile("sheet-", ".spill");
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+    }
+
+    /**
+     * Appends a row of trimmed cell values; missing cells are empty strings.
+     */
+    void addRow(List<String> values) throws IOException {
+        int fieldCount = values.size();
+        while (fieldCount > 0 && values.get(fieldCount - 1).isEmpty()) {
+            fieldCount--;
+        }
+        width = Math.max(width, fieldCount);
+
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fieldCount; i++) {
+            if (i > 0) line.append(',');
+            line.append(ExcelToCsvService.escapeForCsv(values.get(i)));
+        }
+        byte[] bytes = line.toString().getBytes(charset);
+
+        out.writeInt(fieldCount);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        rowCount++;
+    }
+
+    /**
+     * True when no row has a value, in which case the sheet is left out.
+     */
+    boolean isBlank() {
+        return width == 0;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Writes the spilled rows as CSV, every row padded to the sheet width.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        this.out.close();
+
+        // Rows are written in small pieces, buffer them so a deflating target is not called per piece
+        BufferedOutputStream target = new BufferedOutputStream(out, 64 * 1024);
+
+        byte[] padding = new byte[PADDING_CHUNK];
+        Arrays.fill(padding, (byte) ',');
+        byte[] buffer = new byte[8192];
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            for (long row = 0; row < rowCount; row++) {
+                int fieldCount = in.readInt();
+                int length = in.readInt();
+                if (length > buffer.length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                in.readFully(buffer, 0, length);
+                target.write(buffer, 0, length);
+
+                // n fields are followed by width - n empty ones; an empty row is width - 1 separators
+                int separators = fieldCount == 0 ? width - 1 : width - fieldCount;
+                while (separators > 0) {
+                    int chunk = Math.min(separators, PADDING_CHUNK);
+                    target.write(padding, 0, chunk);
+                    separators -= chunk;
+                }
+                target.write(lineSeparator);
+            }
+        }
+        target.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            out.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
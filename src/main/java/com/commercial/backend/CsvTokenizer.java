@@ -0,0 +1,267 @@
+package com.commercial.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Streaming RFC 4180 CSV reader that reuses its buffers from record to record.
+ *
+ * <p>Fields of the current record are exposed as slices of {@link #buffer()}, so reading a
+ * file does not allocate per field. Quoted fields may contain commas, line breaks and
+ * escaped {@code ""} quotes. When sanitizing is on, every field is trimmed, line breaks are
+ * removed and runs of whitespace are collapsed to a single space in the same pass.</p>
+ */
+class CsvTokenizer implements Closeable {
+
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final char[] input = new char[INPUT_BUFFER_SIZE];
+    private int inputPosition;
+    private int inputLimit;
+    private long inputOffset;
+
+    private char[] record = new char[1024];
+    private int recordLength;
+    private int[] fieldStarts = new int[64];
+    private int[] fieldEnds = new int[64];
+    private int fieldCount;
+    private long recordNumber;
+
+    private boolean sanitizing = true;
+    private int pendingWhitespace;
+    private char lastWhitespace;
+
+    CsvTokenizer(Reader reader) {
+        this.reader = reader;
+    }
+
+    void setSanitizing(boolean sanitizing) {
+        this.sanitizing = sanitizing;
+    }
+
+    /**
+     * Advances to the next record, skipping empty lines.
+     *
+     * @return false once the input is exhausted
+     */
+    boolean nextRecord() throws IOException {
+        while (true) {
+            int first = peek();
+            if (first == -1) return false;
+            if (first == '\n' || first == '\r') {
+                consumeLineBreak();
+                continue;
+            }
+            readRecord();
+            recordNumber++;
+            return true;
+        }
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    char[] buffer() {
+        return record;
+    }
+
+    int fieldStart(int index) {
+        return fieldStarts[index];
+    }
+
+    int fieldLength(int index) {
+        return fieldEnds[index] - fieldStarts[index];
+    }
+
+    String field(int index) {
+        return new String(record, fieldStarts[index], fieldLength(index));
+    }
+
+    String[] fields() {
+        String[] values = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            values[i] = field(i);
+        }
+        return values;
+    }
+
+    long getRecordNumber() {
+        return recordNumber;
+    }
+
+    /**
+     * Number of characters consumed so far, i.e. where the next record starts.
+     */
+    long getCharOffset() {
+        return inputOffset + inputPosition;
+    }
+
+    /**
+     * Moves forward to a character offset taken from {@link #getCharOffset()} on an earlier read of
+     * the same input, without tokenizing what lies in between.
+     */
+    void skipTo(long charOffset) throws IOException {
+        long remaining = charOffset - getCharOffset();
+        if (remaining < 0) {
+            throw new IllegalStateException("Cannot skip back to offset " + charOffset + " from " + getCharOffset());
+        }
+
+        int buffered = (int) Math.min(remaining, inputLimit - inputPosition);
+        inputPosition += buffered;
+        remaining -= buffered;
+        if (remaining == 0) return;
+
+        inputOffset += inputLimit;
+        inputPosition = 0;
+        inputLimit = 0;
+        while (remaining > 0) {
+            long skipped = reader.skip(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Input ends before offset " + charOffset);
+            }
+            inputOffset += skipped;
+            remaining -= skipped;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void readRecord() throws IOException {
+        recordLength = 0;
+        fieldCount = 0;
+        startField();
+
+        boolean insideQuotes = false;
+        int character;
+        while ((character = read()) != -1) {
+            if (insideQuotes) {
+                if (character == '"') {
+                    if (peek() == '"') {
+                        read();
+                        append('"');
+                    } else {
+                        insideQuotes = false;
+                    }
+                } else {
+                    append((char) character);
+                }
+            } else if (character == '"') {
+                insideQuotes = true;
+            } else if (character == ',') {
+                endField();
+                startField();
+            } else if (character == '\n') {
+                break;
+            } else if (character == '\r') {
+                if (peek() == '\n') read();
+                break;
+            } else {
+                append((char) character);
+            }
+        }
+        endField();
+    }
+
+    private void startField() {
+        if (fieldCount == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+        }
+        fieldStarts[fieldCount] = recordLength;
+        pendingWhitespace = 0;
+    }
+
+    private void endField() {
+        fieldEnds[fieldCount] = recordLength;
+        fieldCount++;
+    }
+
+    private void append(char character) {
+        if (sanitizing) {
+            if (character == '\n' || character == '\r') return;
+            if (isWhitespace(character)) {
+                pendingWhitespace++;
+                lastWhitespace = character;
+                return;
+            }
+            if (pendingWhitespace > 0) {
+                if (recordLength > fieldStarts[fieldCount]) {
+                    store(pendingWhitespace == 1 ? lastWhitespace : ' ');
+                }
+                pendingWhitespace = 0;
+            }
+        }
+        store(character);
+    }
+
+    private void store(char character) {
+        if (recordLength == record.length) {
+            record = Arrays.copyOf(record, recordLength * 2);
+        }
+        record[recordLength++] = character;
+    }
+
+    /**
+     * Sanitizes a value that did not come through a tokenizer by the same rules as a field.
+     */
+    static String sanitize(String value) {
+        StringBuilder sanitized = new StringBuilder(value.length());
+        int pending = 0;
+        char last = ' ';
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            if (character == '\n' || character == '\r') continue;
+            if (isWhitespace(character)) {
+                pending++;
+                last = character;
+                continue;
+            }
+            if (pending > 0) {
+                if (sanitized.length() > 0) {
+                    sanitized.append(pending == 1 ? last : ' ');
+                }
+                pending = 0;
+            }
+            sanitized.append(character);
+        }
+        return sanitized.length() == value.length() ? value : sanitized.toString();
+    }
+
+    private static boolean isWhitespace(char character) {
+        return character == ' ' || character == '\t' || character == '\u000B' || character == '\f';
+    }
+
+    private void consumeLineBreak() throws IOException {
+        if (read() == '\r' && peek() == '\n') read();
+    }
+
+    private int read() throws IOException {
+        if (inputPosition == inputLimit && !fill()) return -1;
+        return input[inputPosition++];
+    }
+
+    private int peek() throws IOException {
+        if (inputPosition == inputLimit && !fill()) return -1;
+        return input[inputPosition];
+    }
+
+    private boolean fill() throws IOException {
+        int count;
+        do {
+            count = reader.read(input, 0, input.length);
+        } while (count == 0);
+
+        if (count < 0) return false;
+        inputOffset += inputLimit;
+        inputPosition = 0;
+        inputLimit = count;
+        return true;
+    }
+}
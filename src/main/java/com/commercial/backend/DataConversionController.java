@@ -0,0 +1,57 @@
+package com.commercial.backend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api")
+public class DataConversionController {
+
+    @Autowired
+    private DataConversionService dataConversionService;
+
+    @Autowired
+    private ConversionRunLog conversionRunLog;
+
+    /**
+     * Row counts of the segment tables, see {@link DataConversionService#getSegmentCounts}; an
+     * unknown mode is answered with 400.
+     */
+    @GetMapping("/segment-counts")
+    public ResponseEntity<Map<String, Long>> getSegmentCounts(@RequestParam(value = "mode", required = false) String mode)
+            throws SQLException {
+        try {
+            return ResponseEntity.ok(dataConversionService.getSegmentCounts(mode));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Ids of the conversion runs whose logs are kept, latest first.
+     */
+    @GetMapping("/conversion-runs")
+    public List<String> getConversionRuns() throws IOException {
+        return conversionRunLog.recentRuns();
+    }
+
+    /**
+     * Log of a conversion run as written so far.
+     */
+    @GetMapping(value = "/conversion-runs/{runId}/log", produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<String> getConversionRunLog(@PathVariable("runId") String runId) throws IOException {
+        String log = conversionRunLog.read(runId);
+        return log != null ? ResponseEntity.ok(log) : ResponseEntity.notFound().build();
+    }
+}
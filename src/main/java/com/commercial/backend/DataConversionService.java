@@ -1,197 +1,400 @@
 package com.commercial.backend;
 
-import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
+import javax.sql.DataSource;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.sql.*;
-import java.util.Properties;
-import java.util.logging.FileHandler;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
 
 @AutoConfiguration
 @Service
 public class DataConversionService {
     private static final Logger logger = Logger.getLogger(DataConversionService.class.getName());
+    private static final String RANGE_CALL_TEMPLATE = "{call %s(?, ?)}";
     @Autowired
     CommercialConstants commercialConstants;
     @Autowired
-    private JdbcTemplate jdbcTemplate;
+    @Qualifier("conversionDataSource")
+    private DataSource dataSource;
+    @Autowired
+    private ProcedureRegistry procedureRegistry;
+    @Autowired
+    @Qualifier("conversionExecutor")
+    private ThreadPoolTaskExecutor conversionExecutor;
+
+    @Autowired
+    private ConversionChunkRepository conversionChunkRepository;
+    @Autowired
+    private SegmentStatistics segmentStatistics;
+    @Autowired
+    private SegmentTransformationEngine segmentTransformationEngine;
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private ConversionRunLog conversionRunLog;
+
+    @Value("${conversion.parallel.enabled:true}")
+    private boolean parallelSegmentsEnabled;
+
+    @Value("${conversion.statistics.summary-mode:exact}")
+    private String summaryStatisticsMode;
+
+    @Value("${conversion.statistics.ui-mode:approximate}")
+    private String uiStatisticsMode;
+
+    @Value("${conversion.chunked.enabled:false}")
+    private boolean chunkedEnabled;
+
+    @Value("${conversion.chunked.key-table:}")
+    private String chunkKeyTable;
+
+    @Value("${conversion.chunked.key-column:}")
+    private String chunkKeyColumn;
+
+    @Value("${conversion.chunked.keys-per-chunk:10000}")
+    private int keysPerChunk;
+
+    @Value("${conversion.chunked.procedure-suffix:ByRange}")
+    private String rangeProcedureSuffix;
 
     public String performDataConversion() {
         StringBuilder responseBuilder = new StringBuilder();
 
+        // Everything logged until the run is closed goes to the log of this run
+        ConversionRunLog.Run run;
         try {
-            // Load the log file path from properties file
-            Properties props = new Properties();
-            try (InputStream inputStream = getClass().getResourceAsStream(commercialConstants.getQueriesPropertiesFile())) {
-                props.load(inputStream);
-            }
-            String filepath = props.getProperty(commercialConstants.getLogFilePath());
+            run = conversionRunLog.open();
+        } catch (IOException | IllegalStateException e) {
+            logger.severe("Cannot start the data conversion: " + e.getMessage());
+            return "Error: " + e.getMessage() + commercialConstants.getLineBreak();
+        }
+
+        try (run) {
+            logger.info("Conversion run " + run.id() + " started");
 
-            // Delete the existing log file if it exists
             try {
-                Path path = Paths.get(filepath);
-                Files.deleteIfExists(path);
-            } catch (IOException e) {
-                // Handle any errors related to deleting the existing log file
+                // Install the procedures whose scripts changed, then run them as their dependencies allow
+                for (Map.Entry<String, String> procedure : procedureRegistry.segmentProcedures().entrySet()) {
+                    procedureRegistry.ensureInstalled(procedure.getKey(), procedure.getValue());
+                }
+                if (chunkedEnabled) {
+                    runSegmentProceduresInChunks();
+                } else {
+                    runSegmentProcedures();
+                }
+
+                // Fetch record counts for the tables in one query
+                SegmentStatistics.Mode mode = SegmentStatistics.Mode.of(summaryStatisticsMode);
+                Map<String, Long> counts = segmentStatistics.rowCounts(segmentTables(), mode);
+                String approximate = mode == SegmentStatistics.Mode.APPROXIMATE ? "~" : "";
+
+                // Build the response
+                responseBuilder.append(commercialConstants.getBorrowerSegmentLabel()).append(approximate).append(counts.get(commercialConstants.getBorrowerSegTable())).append(commercialConstants.getLineBreak());
+                responseBuilder.append(commercialConstants.getAddressSegmentLabel()).append(approximate).append(counts.get(commercialConstants.getAddressSegCommercialTable())).append(commercialConstants.getLineBreak());
+                responseBuilder.append(commercialConstants.getCreditFacilitySegmentLabel()).append(approximate).append(counts.get(commercialConstants.getCreditFacilitySegTable())).append(commercialConstants.getLineBreak());
+                responseBuilder.append(commercialConstants.getDishonourSegmentLabel()).append(approximate).append(counts.get(commercialConstants.getDishonourOfChequeSegTable())).append(commercialConstants.getLineBreak());
+                responseBuilder.append(commercialConstants.getGuarantorSegmentLabel()).append(approximate).append(counts.get(commercialConstants.getGuarantorSegTable())).append(commercialConstants.getLineBreak());
+                responseBuilder.append(commercialConstants.getRelSegmentLabel()).append(approximate).append(counts.get(commercialConstants.getRelationshipSegTable())).append(commercialConstants.getLineBreak());
+                responseBuilder.append(commercialConstants.getSecuritySegmentLabel()).append(approximate).append(counts.get(commercialConstants.getSecuritySegTable())).append(commercialConstants.getLineBreak());
+
+                // Logging
+                Logger.getLogger(DataConversionService.class.getName()).info("Stored procedures executed successfully.");
+
+            } catch (Exception e) {
+                // Exception handling
                 e.printStackTrace();
+                responseBuilder.append("Error: ").append(e.getMessage()).append(commercialConstants.getLineBreak());
+
+                // Logging
+                Logger.getLogger(DataConversionService.class.getName()).severe("Error executing the stored procedures: " + e.getMessage());
             }
+            responseBuilder.append("Log: ").append(run.id()).append(commercialConstants.getLineBreak());
+        }
 
-            // Configure the root logger
-            Logger rootLogger = Logger.getLogger("");
-            rootLogger.setUseParentHandlers(false); // Disable default console handler
+        return responseBuilder.toString();
+    }
 
-            try {
-                // Create and configure the FileHandler
-                FileHandler fileHandler = new FileHandler(filepath, true); // Append mode
-                fileHandler.setFormatter(new SimpleFormatter()); // Optional formatter
-                rootLogger.addHandler(fileHandler);
-            } catch (IOException e) {
-                // Handle any errors related to setting up the FileHandler
-                e.printStackTrace();
+
+    /**
+     * Runs the truncate procedure, then the borrower segment, which the other segments read, and
+     * then the other segments in parallel, each on its own pooled connection. The first failure
+     * cancels the procedures still running and no further one is started.
+     */
+    private void runSegmentProcedures() throws ExecutionException, InterruptedException {
+        String truncateProc = commercialConstants.getTruncateAndDropProc();
+        String borrowerProc = commercialConstants.getBorrowerProc();
+
+        StageScheduler scheduler = newScheduler();
+        scheduler.stage(truncateProc, truncateStage());
+        scheduler.stage(borrowerProc, segmentStage(borrowerProc), truncateProc);
+        for (String procedureName : procedureRegistry.segmentProcedures().keySet()) {
+            if (!procedureName.equals(truncateProc) && !procedureName.equals(borrowerProc)) {
+                scheduler.stage(procedureName, segmentStage(procedureName), borrowerProc);
             }
+        }
 
-            // Establish connection
-            Connection connection = jdbcTemplate.getDataSource().getConnection();
-
-            // Drop procedures if they exist
-            dropProcedureIfExists(connection, commercialConstants.getTruncateAndDropProc());
-            dropProcedureIfExists(connection, commercialConstants.getBorrowerProc());
-            dropProcedureIfExists(connection, commercialConstants.getAddressProc());
-            dropProcedureIfExists(connection, commercialConstants.getCreditFacilityProc());
-            dropProcedureIfExists(connection, commercialConstants.getDishonourProc());
-            dropProcedureIfExists(connection, commercialConstants.getGuarantorProc());
-            dropProcedureIfExists(connection, commercialConstants.getRelationshipProc());
-            dropProcedureIfExists(connection, commercialConstants.getSecurityProc());
-
-
-            // Execute procedure
-            executeStoredProcedure(connection, commercialConstants.getTruncateSqlPath(), commercialConstants.getTruncateAndDropProc());
-            executeStoredProcedure(connection, commercialConstants.getBorrowerSqlPath(), commercialConstants.getBorrowerProc());
-            executeStoredProcedure(connection, commercialConstants.getAddressSqlPath(), commercialConstants.getAddressProc());
-            executeStoredProcedure(connection, commercialConstants.getCreditFacilitySqlPath(), commercialConstants.getCreditFacilityProc());
-            executeStoredProcedure(connection, commercialConstants.getDishonourSqlPath(), commercialConstants.getDishonourProc());
-            executeStoredProcedure(connection, commercialConstants.getGuarantorSqlPath(), commercialConstants.getGuarantorProc());
-            executeStoredProcedure(connection, commercialConstants.getRelationshipSqlPath(), commercialConstants.getRelationshipProc());
-            executeStoredProcedure(connection, commercialConstants.getSecuritySqlPath(), commercialConstants.getSecurityProc());
-
-
-            // Fetch record counts for the tables
-            int borrowerSegCount = getTableCount(connection, commercialConstants.getBorrowerSegTable());
-            int addressCount = getTableCount(connection, commercialConstants.getAddressSegCommercialTable());
-            int creditFacilitySegCount = getTableCount(connection, commercialConstants.getCreditFacilitySegTable());
-            int dishonourCount = getTableCount(connection, commercialConstants.getDishonourOfChequeSegTable());
-            int gurantorSegCount = getTableCount(connection, commercialConstants.getGuarantorSegTable());
-            int relationship_segCount = getTableCount(connection, commercialConstants.getRelationshipSegTable());
-            int securitySegCount = getTableCount(connection, commercialConstants.getSecuritySegTable());
-
-
-            // Build the response
-            responseBuilder.append(commercialConstants.getBorrowerSegmentLabel()).append(borrowerSegCount).append(commercialConstants.getLineBreak());
-            responseBuilder.append(commercialConstants.getAddressSegmentLabel()).append(addressCount).append(commercialConstants.getLineBreak());
-            responseBuilder.append(commercialConstants.getCreditFacilitySegmentLabel()).append(creditFacilitySegCount).append(commercialConstants.getLineBreak());
-            responseBuilder.append(commercialConstants.getDishonourSegmentLabel()).append(dishonourCount).append(commercialConstants.getLineBreak());
-            responseBuilder.append(commercialConstants.getGuarantorSegmentLabel()).append(gurantorSegCount).append(commercialConstants.getLineBreak());
-            responseBuilder.append(commercialConstants.getRelSegmentLabel()).append(relationship_segCount).append(commercialConstants.getLineBreak());
-            responseBuilder.append(commercialConstants.getSecuritySegmentLabel()).append(securitySegCount).append(commercialConstants.getLineBreak());
-
-            // Close the connection
-            connection.close();
-
-            // Logging
-            Logger.getLogger(DataConversionService.class.getName()).info("Stored procedures executed successfully.");
-
-        } catch (Exception e) {
-            // Exception handling
-            e.printStackTrace();
-            responseBuilder.append("Error: ").append(e.getMessage()).append(commercialConstants.getLineBreak());
+        runStages(scheduler);
+    }
 
-            // Logging
-            Logger.getLogger(DataConversionService.class.getName()).severe("Error executing the stored procedures: " + e.getMessage());
+    /**
+     * Runs the segment procedures once per range of borrower keys instead of once over all
+     * borrowers, so each call holds its locks and undo for a single range and a failure only
+     * loses the ranges that did not complete. A range of a segment depends on the same range
+     * of the borrower segment only, so ranges proceed independently of each other.
+     *
+     * <p>Ranges are passed to {@code <procedure><suffix>(firstKey, lastKey)}, both keys
+     * included. Each call commits together with its record in {@code conversion_chunk}; when
+     * the previous conversion of the same keys did not complete, truncating is skipped and
+     * only the chunks without a record run again.</p>
+     */
+    private void runSegmentProceduresInChunks() throws SQLException, ExecutionException, InterruptedException {
+        if (chunkKeyTable.isBlank() || chunkKeyColumn.isBlank()) {
+            throw new IllegalStateException("Chunked conversion needs conversion.chunked.key-table and conversion.chunked.key-column");
+        }
+        String truncateProc = commercialConstants.getTruncateAndDropProc();
+        String borrowerProc = commercialConstants.getBorrowerProc();
+        for (String procedureName : procedureRegistry.segmentProcedures().keySet()) {
+            if (segmentTransformationEngine.runsInJava(procedureName)) {
+                throw new IllegalStateException("Segment " + procedureName
+                        + " runs in Java, which the chunked conversion does not support");
+            }
         }
 
-        return responseBuilder.toString();
-    }
+        List<ConversionChunkRepository.KeyRange> ranges =
+                conversionChunkRepository.planKeyRanges(chunkKeyTable, chunkKeyColumn, keysPerChunk);
+        String planHash = ConversionChunkRepository.planHash(chunkKeyTable, chunkKeyColumn, ranges);
+        Set<String> completed = conversionChunkRepository.findCompletedChunks(planHash);
+
+        StageScheduler scheduler = newScheduler();
+        String[] afterTruncate = {};
+        if (completed.isEmpty()) {
+            conversionChunkRepository.deleteChunks();
+            scheduler.stage(truncateProc, truncateStage());
+            afterTruncate = new String[]{truncateProc};
+        } else {
+            logger.info("Resuming the chunked conversion, " + completed.size() + " chunks of "
+                    + ranges.size() + " key ranges already completed");
+        }
 
-    private void dropProcedureIfExists(Connection connection, String procedureName) throws SQLException {
-        String dropProcedureSQL = commercialConstants.getDropQuery() + procedureName;
-        try (Statement statement = connection.createStatement()) {
-            statement.execute(dropProcedureSQL);
+        for (ConversionChunkRepository.KeyRange range : ranges) {
+            String borrowerChunk = chunkStage(scheduler, borrowerProc, range, planHash, completed, afterTruncate);
+            for (String procedureName : procedureRegistry.segmentProcedures().keySet()) {
+                if (!procedureName.equals(truncateProc) && !procedureName.equals(borrowerProc)) {
+                    chunkStage(scheduler, procedureName, range, planHash, completed, borrowerChunk);
+                }
+            }
         }
+
+        runStages(scheduler);
+        conversionChunkRepository.deleteChunks();
     }
 
-    private void executeStoredProcedure(Connection connection, String sqlFileName, String procedureName) throws SQLException, IOException {
-        // Load SQL script
-        try (InputStream inputStream = getClass().getResourceAsStream(sqlFileName)) {
-            if (inputStream == null) {
-                throw new IOException("SQL file not found: " + sqlFileName);
-            }
-            String sqlScript = IOUtils.toString(inputStream, commercialConstants.getUtf8());
+    /**
+     * The segment's stored procedure, or its Java transformation if it is configured to run in
+     * Java.
+     */
+    private StageScheduler.Stage segmentStage(String procedureName) {
+        return segmentTransformationEngine.runsInJava(procedureName)
+                ? segmentTransformationEngine.stage(procedureName) : new ProcedureStage(procedureName);
+    }
 
-            // Create statement and execute script
-            try (Statement statement = connection.createStatement()) {
-                statement.execute(sqlScript);
+    /**
+     * The truncate procedure, which also clears the counts the procedures collect when the
+     * summary is built from them.
+     */
+    private StageScheduler.Stage truncateStage() {
+        ProcedureStage truncate = new ProcedureStage(commercialConstants.getTruncateAndDropProc());
+        if (SegmentStatistics.Mode.of(summaryStatisticsMode) != SegmentStatistics.Mode.COLLECTED) {
+            return truncate;
+        }
+        return new StageScheduler.Stage() {
+            @Override
+            public void run() throws Exception {
+                segmentStatistics.resetCollected();
+                truncate.run();
             }
 
-            // Create CallableStatement for stored procedure
-            try (CallableStatement callableStatement = connection.prepareCall("{call " + procedureName + "()}")) {
-                // Execute stored procedure
-                callableStatement.execute();
+            @Override
+            public void cancel() {
+                truncate.cancel();
             }
+        };
+    }
+
+    /**
+     * Declares the stage of one range of a procedure; a chunk the interrupted conversion
+     * completed is declared as completed and not called again.
+     *
+     * @return the name of the stage
+     */
+    private String chunkStage(StageScheduler scheduler, String procedureName, ConversionChunkRepository.KeyRange range,
+                              String planHash, Set<String> completed, String... dependsOn) {
+        String chunk = ConversionChunkRepository.chunkKey(procedureName, range.index());
+        if (completed.contains(chunk)) {
+            scheduler.completed(chunk);
+        } else {
+            scheduler.stage(chunk, new ProcedureStage(procedureName, range, planHash), dependsOn);
         }
+        return chunk;
     }
 
-    private int getTableCount(Connection connection, String tableName) throws SQLException {
-        String countQuery = commercialConstants.getCountquery() + tableName;
-        try (Statement statement = connection.createStatement();
-             ResultSet resultSet = statement.executeQuery(countQuery)) {
-            if (resultSet.next()) {
-                return resultSet.getInt(1);
+    /**
+     * A scheduler that hands the conversion executor no more stages than it has threads, so a
+     * chunked run with every range ready neither overflows the queue nor runs stages on the
+     * calling thread. The queue only takes the stages started while the threads of finished
+     * ones are on their way back to the pool.
+     */
+    private StageScheduler newScheduler() {
+        if (!parallelSegmentsEnabled) return new StageScheduler(Runnable::run);
+        return new StageScheduler(ConversionRunLog.inCurrentRun(conversionExecutor), conversionExecutor.getMaxPoolSize());
+    }
+
+    private void runStages(StageScheduler scheduler) throws ExecutionException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        try {
+            scheduler.run();
+        } finally {
+            StringBuilder summary = new StringBuilder("Segment procedures took ")
+                    .append(System.currentTimeMillis() - startTime).append(" ms:");
+            for (StageScheduler.StageTiming timing : scheduler.timings()) {
+                pipelineMetrics.recordStage(timing);
+                summary.append(' ').append(timing.name()).append(' ').append(timing.status())
+                        .append(' ').append(timing.durationMillis()).append(" ms;");
             }
+            logger.info(summary.toString());
         }
-        return 0;
     }
-    public void executeProcedure(String procedureName, String sqlFilePath) throws IOException, SQLException {
-        // Obtain a connection from the jdbcTemplate
-        try (Connection connection = jdbcTemplate.getDataSource().getConnection();
-             InputStream inputStream = getClass().getResourceAsStream(sqlFilePath)) {
-
-            // Read the SQL script from the input stream
-            String sqlScript = IOUtils.toString(inputStream, commercialConstants.getUtf8());
-
-            // Create statement and execute script
-            try (Statement statement = connection.createStatement()) {
-                // Drop the procedure if it exists
-                String dropProcedure = String.format(commercialConstants.getDropProcedureTemplate(), procedureName);
-                statement.executeUpdate(dropProcedure);
-                statement.execute(sqlScript);
+
+    /**
+     * Calls one procedure on a connection of its own. Cancelling kills the running statement.
+     */
+    private class ProcedureStage implements StageScheduler.Stage {
+
+        private final String procedureName;
+        private final ConversionChunkRepository.KeyRange range;
+        private final String planHash;
+        private volatile CallableStatement statement;
+        private volatile boolean cancelled;
+
+        ProcedureStage(String procedureName) {
+            this(procedureName, null, null);
+        }
+
+        ProcedureStage(String procedureName, ConversionChunkRepository.KeyRange range, String planHash) {
+            this.procedureName = procedureName;
+            this.range = range;
+            this.planHash = planHash;
+        }
+
+        @Override
+        public void run() throws SQLException, InterruptedException {
+            String call = range == null ? String.format(commercialConstants.getCallProcedureTemplate(), procedureName)
+                    : String.format(RANGE_CALL_TEMPLATE, procedureName + rangeProcedureSuffix);
+            // Counted against the pool like the connections of the Java segments running next to it
+            Semaphore connectionPermits = segmentTransformationEngine.connectionPermits();
+            connectionPermits.acquire();
+            try (Connection connection = dataSource.getConnection();
+                 CallableStatement callableStatement = connection.prepareCall(call)) {
+                statement = callableStatement;
+                if (cancelled) {
+                    throw new SQLException("Procedure " + procedureName + " cancelled before it started");
+                }
+                if (range == null) {
+                    callableStatement.execute();
+                } else {
+                    runRange(connection, callableStatement);
+                }
+            } finally {
+                statement = null;
+                connectionPermits.release();
+            }
+        }
+
+        private void runRange(Connection connection, CallableStatement callableStatement) throws SQLException {
+            connection.setAutoCommit(false);
+            try {
+                callableStatement.setString(1, range.firstKey());
+                callableStatement.setString(2, range.lastKey());
+                callableStatement.execute();
+                conversionChunkRepository.saveCompletedChunk(connection, planHash, procedureName, range);
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            CallableStatement running = statement;
+            if (running == null) return;
+            try {
+                running.cancel();
             } catch (SQLException e) {
-                throw new RuntimeException(e);
+                logger.warning("Cannot cancel procedure " + procedureName + ": " + e.getMessage());
             }
         }
     }
+
+    private List<String> segmentTables() {
+        return List.of(commercialConstants.getBorrowerSegTable(),
+                commercialConstants.getAddressSegCommercialTable(),
+                commercialConstants.getCreditFacilitySegTable(),
+                commercialConstants.getDishonourOfChequeSegTable(),
+                commercialConstants.getGuarantorSegTable(),
+                commercialConstants.getRelationshipSegTable(),
+                commercialConstants.getSecuritySegTable());
+    }
+
+    /**
+     * Row counts of the segment tables for the UI summary, by default from the table statistics.
+     * {@code mode} is {@code exact}, {@code approximate} or {@code collected}.
+     *
+     * @throws IllegalArgumentException for an unknown mode
+     */
+    public Map<String, Long> getSegmentCounts(String mode) throws SQLException {
+        return segmentStatistics.reportRowCounts(segmentTables(),
+                SegmentStatistics.Mode.of(mode != null ? mode : uiStatisticsMode));
+    }
+
+    /**
+     * Makes sure the procedure is installed from its script; it is only re-created when the
+     * script changed since it was installed.
+     */
+    public void executeProcedure(String procedureName, String sqlFilePath) throws IOException, SQLException {
+        procedureRegistry.ensureInstalled(procedureName, sqlFilePath);
+    }
     public void runDuplicateProcedure(String date) throws SQLException {
         // Use try-with-resources to automatically close the connection
-        try (Connection connection = jdbcTemplate.getDataSource().getConnection();
+        try (Connection connection = dataSource.getConnection();
              Statement statement = connection.createStatement()) {
 
             // Create CallableStatement for stored procedure with one parameter
+            long startTime = System.nanoTime();
             try (CallableStatement callableStatement = connection.prepareCall(commercialConstants.getDuplicateTablesProcedureCall())) {
                 // Set the parameter (assuming it's a string)
                 callableStatement.setString(1, date);
 
                 // Execute the stored procedure
                 callableStatement.execute();
+                pipelineMetrics.recordProcedure(commercialConstants.getDuplicateTablesProcedure(), "succeeded", System.nanoTime() - startTime);
             } catch (SQLException e) {
+                pipelineMetrics.recordProcedure(commercialConstants.getDuplicateTablesProcedure(), "failed", System.nanoTime() - startTime);
                 // Handle any SQL exceptions
                 e.printStackTrace();
             }
@@ -203,47 +406,33 @@ public class DataConversionService {
         // Format the stored procedure call
         String callProcedure = String.format(commercialConstants.getCallProcedureTemplate(), procedureName);
 
-        try (Connection connection = this.jdbcTemplate.getDataSource().getConnection();
+        long startTime = System.nanoTime();
+        try (Connection connection = dataSource.getConnection();
              CallableStatement callableStatement = connection.prepareCall(callProcedure)) {
 
             // Execute the stored procedure
             callableStatement.execute();
+            pipelineMetrics.recordProcedure(procedureName, "succeeded", System.nanoTime() - startTime);
 
         } catch (SQLException e) {
+            pipelineMetrics.recordProcedure(procedureName, "failed", System.nanoTime() - startTime);
             e.printStackTrace();
             throw e;  // Rethrow to allow handling upstream
         }
     }
 
-    public int countRows(String procedureName, String tableName) throws SQLException {
-        String sql = String.format(commercialConstants.getCallParameterTableFormat(), procedureName);
-
-        // Log the stored procedure call attempt
-        logger.info("Executing stored procedure: " + procedureName + " for table: " + tableName);
-
-        try (Connection connection = jdbcTemplate.getDataSource().getConnection();
-             CallableStatement callableStatement = connection.prepareCall(sql)) {
-
-            // Set input parameter (tableName)
-            callableStatement.setString(1, tableName);
-
-            // Execute the stored procedure and retrieve the result set
-            try (ResultSet resultSet = callableStatement.executeQuery()) {
-                if (resultSet.next()) {
-                    // Get the row count and log it
-                    int rowCount = resultSet.getInt(1);
-                    logger.info("Row count for table " + tableName + ": " + rowCount);
-                    return rowCount;
-                }
-            }
+    /**
+     * Counts the rows of a table with a plain COUNT(*), without a procedure call.
+     */
+    public int countRows(String tableName) throws SQLException {
+        try {
+            int rowCount = (int) segmentStatistics.exactCount(tableName);
+            logger.info("Row count for table " + tableName + ": " + rowCount);
+            return rowCount;
         } catch (SQLException e) {
             // Log the error and rethrow the exception
             logger.severe("Error while counting rows for table " + tableName + ": " + e.getMessage());
             throw e;
         }
-
-        // Log if the result set was empty
-        logger.warning("No rows returned for table: " + tableName);
-        return 0;
     }
 }
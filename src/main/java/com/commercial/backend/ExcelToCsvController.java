@@ -0,0 +1,56 @@
+package com.commercial.backend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+@RestController
+@RequestMapping("/api")
+public class ExcelToCsvController {
+
+    @Autowired
+    private ExcelToCsvService excelToCsvService;
+
+    /**
+     * Streams the CSV archive of an uploaded workbook as the response body, so the first
+     * entries reach the client while later sheets are still being converted.
+     */
+    @PostMapping("/excel-to-csv")
+    public ResponseEntity<StreamingResponseBody> streamExcelAsZipOfCsv(@RequestParam("file") MultipartFile file)
+            throws IOException {
+        // The multipart upload may be cleaned up once the handler returns, keep a copy for the response
+        Path workbookFile = Files.createTempFile("workbook-", ".xlsx");
+        try {
+            file.transferTo(workbookFile);
+        } catch (IOException e) {
+            Files.deleteIfExists(workbookFile);
+            throw e;
+        }
+
+        String originalFileName = file.getOriginalFilename() != null ? file.getOriginalFilename() : "workbook";
+        String zipFileName = originalFileName.replaceFirst("\\.[^.]*$", "").replaceAll("[^a-zA-Z0-9_\\-]", "_") + ".zip";
+
+        StreamingResponseBody body = out -> {
+            try {
+                excelToCsvService.writeExcelAsZipOfCsv(workbookFile, out);
+            } finally {
+                Files.deleteIfExists(workbookFile);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + zipFileName)
+                .body(body);
+    }
+}
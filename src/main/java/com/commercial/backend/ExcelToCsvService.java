@@ -2,33 +2,366 @@ package com.commercial.backend;
 
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.poifs.filesystem.FileMagic;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 @Service
 public class ExcelToCsvService {
 
+    private static final Logger logger = Logger.getLogger(ExcelToCsvService.class.getName());
+
+    @Autowired(required = false)
+    @Qualifier("excelSheetExecutor")
+    private ThreadPoolTaskExecutor sheetExecutor;
+
+    @Value("${excel.parallel-sheets.enabled:true}")
+    private boolean parallelSheetsEnabled;
+
+    private final LongAdder formatLookups = new LongAdder();
+    private final LongAdder formatCacheHits = new LongAdder();
+
     /**
      * Convert each sheet of an Excel file into a CSV file,
      * then zip them all into one byte[].
+     *
+     * <p>The whole archive is held in memory; prefer {@link #writeExcelAsZipOfCsv} for large workbooks.</p>
      */
     public byte[] convertExcelToZipOfCsv(InputStream excelInputStream) throws IOException {
         ByteArrayOutputStream zipOutStream = new ByteArrayOutputStream();
+        writeExcelAsZipOfCsv(excelInputStream, zipOutStream);
+        return zipOutStream.toByteArray();
+    }
 
-        try (Workbook workbook = WorkbookFactory.create(excelInputStream);
-             ZipOutputStream zipOut = new ZipOutputStream(zipOutStream)) {
+    /**
+     * Convert each sheet of an Excel file into a CSV file and write them as a ZIP archive to
+     * {@code out}. Each entry is written as soon as its sheet has been read. {@code out} is
+     * finished but not closed.
+     *
+     * <p>.xlsx workbooks are read with the SAX event model and .xls workbooks with the HSSF
+     * record events. Each sheet is spilled to a temp file while it is parsed, so memory use does
+     * not grow with the sheet size. Anything else, such as an encrypted workbook, is loaded as a
+     * full workbook.</p>
+     */
+    public void writeExcelAsZipOfCsv(InputStream excelInputStream, OutputStream out) throws IOException {
+        // OPCPackage reads a file lazily but buffers a whole stream, so spool the upload first
+        Path workbookFile = Files.createTempFile("workbook-", ".xlsx");
+        try {
+            Files.copy(excelInputStream, workbookFile, StandardCopyOption.REPLACE_EXISTING);
+            writeExcelAsZipOfCsv(workbookFile, out);
+        } finally {
+            Files.deleteIfExists(workbookFile);
+        }
+    }
+
+    void writeExcelAsZipOfCsv(Path workbookFile, OutputStream out) throws IOException {
+        ZipOutputStream zipOut = new ZipOutputStream(out);
+        switch (detectFormat(workbookFile)) {
+            case XLSX -> writeXlsxSheets(workbookFile, zipOut);
+            case XLS -> writeXlsSheets(workbookFile, zipOut);
+            default -> {
+                try (InputStream workbookIn = Files.newInputStream(workbookFile)) {
+                    writeWorkbookSheets(workbookIn, zipOut);
+                }
+            }
+        }
+        zipOut.finish();
+        zipOut.flush();
+    }
+
+    /**
+     * Tells the formats apart by their magic bytes rather than the file name, which uploads do not
+     * always get right.
+     */
+    private static WorkbookFormat detectFormat(Path workbookFile) throws IOException {
+        FileMagic fileMagic;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(workbookFile))) {
+            fileMagic = FileMagic.valueOf(in);
+        }
+        if (fileMagic == FileMagic.OOXML) return WorkbookFormat.XLSX;
+        if (fileMagic == FileMagic.OLE2 && XlsSheetReader.isXlsWorkbook(workbookFile)) return WorkbookFormat.XLS;
+        return WorkbookFormat.OTHER;
+    }
+
+    /**
+     * Streams the records of an .xls file and spills one sheet at a time, so neither the
+     * workbook nor a whole sheet is held in memory.
+     */
+    private void writeXlsSheets(Path workbookFile, ZipOutputStream zipOut) throws IOException {
+        SheetEntryWriter entryWriter = new SheetEntryWriter(zipOut);
+        try {
+            readXlsSheets(workbookFile, entryWriter);
+        } finally {
+            entryWriter.discard();
+        }
+    }
+
+    /**
+     * Streams every sheet of an .xlsx file through a SAX handler, using a read-only shared
+     * strings table so not even the strings are held as a model.
+     *
+     * <p>In parallel mode every sheet is parsed into its own spill on the sheet executor and the
+     * entries are written in workbook order as the sheets complete. The package, shared strings
+     * and styles are only read, so the sheets can share them.</p>
+     */
+    private void writeXlsxSheets(Path workbookFile, ZipOutputStream zipOut) throws IOException {
+        try (OPCPackage opcPackage = OPCPackage.open(workbookFile.toFile(), PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(opcPackage);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(opcPackage);
+            StylesTable styles = reader.getStylesTable();
+
+            List<String> sheetNames = new ArrayList<>();
+            List<PackagePart> sheetParts = new ArrayList<>();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                sheets.next().close();
+                sheetNames.add(sheets.getSheetName());
+                sheetParts.add(sheets.getSheetPart());
+            }
+
+            if (parallelSheetsEnabled && sheetExecutor != null && sheetParts.size() > 1) {
+                List<Future<CsvSheetSpill>> spills = new ArrayList<>();
+                AtomicBoolean discarded = new AtomicBoolean();
+                for (PackagePart sheetPart : sheetParts) {
+                    spills.add(sheetExecutor.submit(() -> discarded.get() ? null
+                            : spillSheet(sheetPart, styles, sharedStrings)));
+                }
+                writeSpilledSheets(sheetNames, spills, discarded, zipOut);
+            } else {
+                for (int i = 0; i < sheetParts.size(); i++) {
+                    try (CsvSheetSpill spill = spillSheet(sheetParts.get(i), styles, sharedStrings)) {
+                        writeSheetEntry(sheetNames.get(i), spill, zipOut);
+                    }
+                }
+            }
+        } catch (OpenXML4JException | SAXException e) {
+            throw new IOException("Cannot read workbook: " + e.getMessage(), e);
+        }
+    }
+
+    private void writeSpilledSheets(List<String> sheetNames, List<Future<CsvSheetSpill>> spills,
+                                    AtomicBoolean discarded, ZipOutputStream zipOut) throws IOException {
+        int next = 0;
+        try {
+            for (; next < spills.size(); next++) {
+                try (CsvSheetSpill spill = spills.get(next).get()) {
+                    writeSheetEntry(sheetNames.get(next), spill, zipOut);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while converting sheets");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) throw ioException;
+            throw new IOException("Cannot convert sheet " + sheetNames.get(next) + ": " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            discarded.set(true);
+            discardSpills(spills, next);
+        }
+    }
+
+    /**
+     * Waits for the sheets that were not written and deletes their spills. Sheets that had not
+     * started yet skip the conversion. Running ones cannot be interrupted, as the SAX parser
+     * ignores interrupts, and they read the package the caller closes next, so they are waited
+     * for even when this thread is interrupted.
+     */
+    private static void discardSpills(List<Future<CsvSheetSpill>> spills, int from) {
+        boolean interrupted = false;
+        for (int i = from; i < spills.size(); i++) {
+            while (true) {
+                try (CsvSheetSpill finished = spills.get(i).get()) {
+                    if (finished != null) {
+                        logger.fine("Discarded converted sheet with " + finished.getRowCount() + " rows");
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (Exception ignored) {
+                    // the sheet failed as well, nothing to clean up
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CsvSheetSpill spillSheet(PackagePart sheetPart, StylesTable styles,
+                                     ReadOnlySharedStringsTable sharedStrings) throws IOException {
+        CsvSheetSpill spill = new CsvSheetSpill(Charset.defaultCharset());
+        try (InputStream sheetXml = sheetPart.getInputStream()) {
+            parseSheet(sheetXml, sheetPart.getPartName().getName(), styles, sharedStrings, spill::addRow);
+            return spill;
+        } catch (IOException | RuntimeException e) {
+            spill.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the rows of one sheet's XML to the handler. Every call gets its own parser and
+     * formatter, neither of which is thread-safe.
+     */
+    private void parseSheet(InputStream sheetXml, String sheetName, StylesTable styles,
+                            ReadOnlySharedStringsTable sharedStrings, SheetRowHandler handler) throws IOException {
+        CachingDataFormatter formatter = new CachingDataFormatter();
+        try {
+            XMLReader sheetParser = XMLHelper.newXMLReader();
+            // Formulas are written as formula text, as DataFormatter does for a loaded workbook
+            sheetParser.setContentHandler(new XSSFSheetXMLHandler(styles, null, sharedStrings,
+                    new SheetRowCollector(handler), formatter, true));
+            sheetParser.parse(new InputSource(sheetXml));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException("Cannot read sheet " + sheetName + ": " + e.getMessage(), e);
+        } finally {
+            recordFormatCacheUse(sheetName, formatter);
+        }
+    }
+
+    private void recordFormatCacheUse(String source, CachingDataFormatter formatter) {
+        formatLookups.add(formatter.getLookups());
+        formatCacheHits.add(formatter.getHits());
+        if (formatter.getLookups() > 0) {
+            logger.fine(String.format("Formatted %d numeric cells of %s, %.1f%% with an already resolved format",
+                    formatter.getLookups(), source, 100.0 * formatter.getHits() / formatter.getLookups()));
+        }
+    }
+
+    /**
+     * Share of formatted numeric and date cells that reused an already resolved format since startup,
+     * or 0 before any cell was formatted.
+     */
+    public double getFormatCacheHitRate() {
+        long lookups = formatLookups.sum();
+        return lookups == 0 ? 0 : (double) formatCacheHits.sum() / lookups;
+    }
+
+    /**
+     * Streams the rows of every sheet to the handler without writing any CSV, for loaders that
+     * consume the cell values directly. The values are the ones the CSV of the sheet would hold.
+     */
+    void readSheets(Path workbookFile, SheetRowHandler handler) throws IOException {
+        switch (detectFormat(workbookFile)) {
+            case XLSX -> readXlsxSheets(workbookFile, handler);
+            case XLS -> readXlsSheets(workbookFile, handler);
+            default -> {
+                try (InputStream workbookIn = Files.newInputStream(workbookFile)) {
+                    readWorkbookSheets(workbookIn, handler);
+                }
+            }
+        }
+    }
+
+    private void readXlsSheets(Path workbookFile, SheetRowHandler handler) throws IOException {
+        CachingDataFormatter formatter = new CachingDataFormatter();
+        try {
+            XlsSheetReader.read(workbookFile, handler, formatter);
+        } finally {
+            recordFormatCacheUse("the .xls workbook", formatter);
+        }
+    }
+
+    private void readXlsxSheets(Path workbookFile, SheetRowHandler handler) throws IOException {
+        try (OPCPackage opcPackage = OPCPackage.open(workbookFile.toFile(), PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(opcPackage);
+            ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(opcPackage);
+            StylesTable styles = reader.getStylesTable();
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheetXml = sheets.next()) {
+                    handler.startSheet(sheets.getSheetName());
+                    parseSheet(sheetXml, sheets.getSheetName(), styles, sharedStrings, handler);
+                    handler.endSheet();
+                }
+            }
+        } catch (OpenXML4JException | SAXException e) {
+            throw new IOException("Cannot read workbook: " + e.getMessage(), e);
+        }
+    }
+
+    private void readWorkbookSheets(InputStream excelInputStream, SheetRowHandler handler) throws IOException {
+        try (Workbook workbook = WorkbookFactory.create(excelInputStream)) {
+            DataFormatter formatter = new DataFormatter();
+            List<String> rowValues = new ArrayList<>();
+
+            for (Sheet sheet : workbook) {
+                handler.startSheet(sheet.getSheetName());
+                for (Row row : sheet) {
+                    rowValues.clear();
+                    for (int cn = 0; cn < row.getLastCellNum(); cn++) {
+                        Cell cell = row.getCell(cn, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
+                        rowValues.add(cell != null ? formatter.formatCellValue(cell).trim() : "");
+                    }
+                    handler.row(rowValues);
+                }
+                handler.endSheet();
+            }
+        }
+    }
+
+    /**
+     * Name of the ZIP entry a sheet is written to.
+     */
+    static String csvFileName(String sheetName) {
+        return sheetName.replaceAll("[^a-zA-Z0-9_\\-]", "_") + ".csv";
+    }
+
+    private void writeSheetEntry(String sheetName, CsvSheetSpill spill, ZipOutputStream zipOut) throws IOException {
+        // If entire sheet is empty, skip it
+        if (spill.isBlank()) return;
+
+        String csvFileName = csvFileName(sheetName);
+        zipOut.putNextEntry(new ZipEntry(csvFileName));
+        spill.writeTo(zipOut);
+        zipOut.closeEntry();
+        logger.fine("Converted sheet " + csvFileName + " with " + spill.getRowCount() + " rows");
+    }
+
+    private void writeWorkbookSheets(InputStream excelInputStream, ZipOutputStream zipOut) throws IOException {
+        try (Workbook workbook = WorkbookFactory.create(excelInputStream)) {
 
             DataFormatter formatter = new DataFormatter();
 
             for (int s = 0; s < workbook.getNumberOfSheets(); s++) {
                 Sheet sheet = workbook.getSheetAt(s);
-                String sheetName = sheet.getSheetName().replaceAll("[^a-zA-Z0-9_\\-]", "_");
-                String csvFileName = sheetName + ".csv";
+                String csvFileName = csvFileName(sheet.getSheetName());
 
                 List<List<String>> rowsData = new ArrayList<>();
 
@@ -85,36 +418,129 @@ public class ExcelToCsvService {
                     }
                 }
 
-                // Step 4: Write CSV
-                ByteArrayOutputStream csvBytes = new ByteArrayOutputStream();
-                try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(csvBytes))) {
-                    for (List<String> row : rowsData) {
-                        for (int i = 0; i < row.size(); i++) {
-                            writer.write(escapeForCsv(row.get(i)));
-                            if (i < row.size() - 1) {
-                                writer.write(",");
-                            }
+                // Step 4: Write CSV straight into the ZIP entry
+                zipOut.putNextEntry(new ZipEntry(csvFileName));
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(zipOut));
+                for (List<String> row : rowsData) {
+                    for (int i = 0; i < row.size(); i++) {
+                        writer.write(escapeForCsv(row.get(i)));
+                        if (i < row.size() - 1) {
+                            writer.write(",");
                         }
-                        writer.newLine();
                     }
-                    writer.flush();
+                    writer.newLine();
                 }
-
-                // Step 5: Add CSV to ZIP
-                zipOut.putNextEntry(new ZipEntry(csvFileName));
-                zipOut.write(csvBytes.toByteArray());
+                // Flush only, closing the writer would close the archive
+                writer.flush();
                 zipOut.closeEntry();
             }
         }
-
-        return zipOutStream.toByteArray();
     }
 
-    private String escapeForCsv(String value) {
+    static String escapeForCsv(String value) {
         if (value == null) return "";
         boolean needQuotes = value.contains(",") || value.contains("\"") ||
                 value.contains("\n") || value.contains("\r");
         String escaped = value.replace("\"", "\"\"");
         return needQuotes ? "\"" + escaped + "\"" : escaped;
     }
-}
\ No newline at end of file
+
+    private enum WorkbookFormat { XLSX, XLS, OTHER }
+
+    /**
+     * Spills each sheet while its rows arrive and writes it as a ZIP entry when the sheet ends.
+     */
+    private final class SheetEntryWriter implements SheetRowHandler {
+
+        private final ZipOutputStream zipOut;
+        private String sheetName;
+        private CsvSheetSpill spill;
+
+        SheetEntryWriter(ZipOutputStream zipOut) {
+            this.zipOut = zipOut;
+        }
+
+        @Override
+        public void startSheet(String sheetName) throws IOException {
+            this.sheetName = sheetName;
+            this.spill = new CsvSheetSpill(Charset.defaultCharset());
+        }
+
+        @Override
+        public void row(List<String> values) throws IOException {
+            spill.addRow(values);
+        }
+
+        @Override
+        public void endSheet() throws IOException {
+            try (CsvSheetSpill finished = spill) {
+                spill = null;
+                writeSheetEntry(sheetName, finished, zipOut);
+            }
+        }
+
+        /**
+         * Deletes the spill of a sheet that was not finished.
+         */
+        void discard() throws IOException {
+            if (spill != null) {
+                spill.close();
+                spill = null;
+            }
+        }
+    }
+
+    /**
+     * Collects the cells of each parsed row, fills the gaps left by missing cells and hands the
+     * row to a {@link SheetRowHandler}. Values are trimmed like the workbook path does.
+     */
+    private static final class SheetRowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final SheetRowHandler handler;
+        private final List<String> row = new ArrayList<>();
+
+        SheetRowCollector(SheetRowHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            row.clear();
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = cellReference != null ? columnIndex(cellReference) : row.size();
+            while (row.size() < column) {
+                row.add("");
+            }
+            row.add(formattedValue != null ? formattedValue.trim() : "");
+        }
+
+        /**
+         * Zero-based column of an A1 style reference such as {@code AB12}, without the full
+         * parsing of {@code CellReference}.
+         */
+        static int columnIndex(String cellReference) {
+            int column = 0;
+            for (int i = 0; i < cellReference.length(); i++) {
+                char character = cellReference.charAt(i);
+                if (character >= 'A' && character <= 'Z') {
+                    column = column * 26 + (character - 'A' + 1);
+                } else if (character != '$') {
+                    break;
+                }
+            }
+            return column - 1;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            try {
+                handler.row(row);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
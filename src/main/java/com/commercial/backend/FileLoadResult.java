@@ -0,0 +1,17 @@
+package com.commercial.backend;
+
+/**
+ * Outcome of loading one uploaded CSV file or workbook sheet into its table. An unchanged file was skipped
+ * because it matches the last upload of the same table.
+ */
+public record FileLoadResult(String fileName, String tableName, long rowCount, long elapsedMillis,
+                             String errorMessage, boolean unchanged) {
+
+    static FileLoadResult failed(String fileName, Throwable e) {
+        return new FileLoadResult(fileName, null, 0, 0, e.getMessage(), false);
+    }
+
+    public boolean isSuccessful() {
+        return errorMessage == null;
+    }
+}
@@ -0,0 +1,33 @@
+package com.commercial.backend;
+
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+/**
+ * Deregisters the JDBC drivers loaded by the class loader this class is defined in.
+ *
+ * <p>{@link DriverManager} only lets code deregister the drivers its own class loader can see,
+ * so {@link CicGeneratorRunner} defines this class in the generator's class loader before it
+ * closes that loader. It must only use platform classes.</p>
+ */
+final class GeneratorDriverCleanup implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(GeneratorDriverCleanup.class.getName());
+
+    @Override
+    public void run() {
+        ClassLoader classLoader = GeneratorDriverCleanup.class.getClassLoader();
+        for (Driver driver : Collections.list(DriverManager.getDrivers())) {
+            if (driver.getClass().getClassLoader() != classLoader) continue;
+            try {
+                DriverManager.deregisterDriver(driver);
+            } catch (SQLException e) {
+                logger.warning("Cannot deregister the generator's JDBC driver " + driver.getClass().getName()
+                        + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.commercial.backend;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Feeds CSV rows to MySQL's LOAD DATA LOCAL INFILE as tab separated text.
+ * Rows are tokenized and encoded one at a time, so the upload is never held in memory.
+ * Values are checked against their column type before they are sent, as LOAD DATA LOCAL would
+ * otherwise truncate them with only a warning. When fingerprints are given, every row sent is
+ * also recorded there.
+ *
+ * <p>With a row limit the stream ends after that many rows, leaving the rest of the source for
+ * the next stream, so one upload can be loaded as several LOAD DATA statements.</p>
+ */
+class LoadDataInputStream extends InputStream {
+
+    private final CsvRows rows;
+    private final int columnCount;
+    private final ColumnType[] columnTypes;
+    private final RowFingerprints fingerprints;
+    private final long maxRows;
+
+    private byte[] rowBytes = new byte[4096];
+    private int rowLength;
+    private int position;
+    private long rowCount;
+    private boolean finished;
+
+    LoadDataInputStream(CsvRows rows, int columnCount, ColumnType[] columnTypes, RowFingerprints fingerprints,
+                        long maxRows) {
+        this.rows = rows;
+        this.columnCount = columnCount;
+        this.columnTypes = columnTypes;
+        this.fingerprints = fingerprints;
+        this.maxRows = maxRows;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureRowAvailable()) return -1;
+        return rowBytes[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (!ensureRowAvailable()) return -1;
+
+        int copied = 0;
+        while (copied < length && ensureRowAvailable()) {
+            int chunk = Math.min(length - copied, rowLength - position);
+            System.arraycopy(rowBytes, position, buffer, offset + copied, chunk);
+            position += chunk;
+            copied += chunk;
+        }
+        return copied;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * True once the source ran out of rows, false when the stream stopped at its row limit.
+     */
+    boolean isSourceExhausted() {
+        return finished;
+    }
+
+    private boolean ensureRowAvailable() throws IOException {
+        while (position >= rowLength) {
+            if (finished || (maxRows > 0 && rowCount >= maxRows)) return false;
+
+            if (!rows.next()) {
+                finished = true;
+                return false;
+            }
+            if (rows.isBuffered()) {
+                encodeBufferedRow(rows.bufferedRow());
+            } else {
+                encodeTokenizedRow(rows.tokenizer());
+            }
+            if (fingerprints != null) {
+                try {
+                    fingerprints.record(rows);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Row " + rows.getRowNumber()
+                            + " does not fit its column: " + e.getMessage(), e);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void encodeBufferedRow(String[] fields) throws IOException {
+        startRow();
+        for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+            if (columnIndex > 0) put((byte) '\t');
+            appendValue(columnIndex, columnIndex < fields.length ? fields[columnIndex] : null);
+        }
+        endRow();
+    }
+
+    private void encodeTokenizedRow(CsvTokenizer tokenizer) throws IOException {
+        startRow();
+        char[] buffer = tokenizer.buffer();
+        for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+            if (columnIndex > 0) put((byte) '\t');
+            if (columnIndex >= tokenizer.fieldCount()) {
+                putNull();
+            } else if (columnTypes[columnIndex].isPassThrough()
+                    && tokenizer.fieldLength(columnIndex) <= maxLength(columnIndex)) {
+                int start = tokenizer.fieldStart(columnIndex);
+                appendEscaped(buffer, start, start + tokenizer.fieldLength(columnIndex));
+            } else {
+                appendValue(columnIndex, tokenizer.field(columnIndex));
+            }
+        }
+        endRow();
+    }
+
+    private void appendValue(int columnIndex, String value) throws IOException {
+        if (value != null) {
+            try {
+                value = columnTypes[columnIndex].normalize(value);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Row " + rows.getRowNumber()
+                        + " does not fit its column: " + e.getMessage(), e);
+            }
+        }
+        if (value == null) {
+            putNull();
+        } else {
+            char[] characters = value.toCharArray();
+            appendEscaped(characters, 0, characters.length);
+        }
+    }
+
+    private int maxLength(int columnIndex) {
+        ColumnType columnType = columnTypes[columnIndex];
+        return columnType.getKind() == ColumnType.Kind.VARCHAR ? columnType.getLength() : Integer.MAX_VALUE;
+    }
+
+    private void startRow() {
+        rowLength = 0;
+        position = 0;
+    }
+
+    private void endRow() {
+        put((byte) '\n');
+        rowCount++;
+    }
+
+    private void putNull() {
+        put((byte) '\\');
+        put((byte) 'N');
+    }
+
+    private void appendEscaped(char[] buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char character = buffer[i];
+            switch (character) {
+                case '\\' -> putEscape('\\');
+                case '\t' -> putEscape('t');
+                case '\n' -> putEscape('n');
+                case '\r' -> putEscape('r');
+                case '\0' -> putEscape('0');
+                default -> {
+                    if (Character.isHighSurrogate(character) && i + 1 < end
+                            && Character.isLowSurrogate(buffer[i + 1])) {
+                        putUtf8(Character.toCodePoint(character, buffer[++i]));
+                    } else {
+                        putUtf8(character);
+                    }
+                }
+            }
+        }
+    }
+
+    private void putEscape(char escaped) {
+        put((byte) '\\');
+        put((byte) escaped);
+    }
+
+    private void putUtf8(int codePoint) {
+        if (codePoint < 0x80) {
+            put((byte) codePoint);
+        } else if (codePoint < 0x800) {
+            put((byte) (0xC0 | (codePoint >> 6)));
+            put((byte) (0x80 | (codePoint & 0x3F)));
+        } else if (codePoint < 0x10000) {
+            put((byte) (0xE0 | (codePoint >> 12)));
+            put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            put((byte) (0x80 | (codePoint & 0x3F)));
+        } else {
+            put((byte) (0xF0 | (codePoint >> 18)));
+            put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+            put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+            put((byte) (0x80 | (codePoint & 0x3F)));
+        }
+    }
+
+    private void put(byte value) {
+        if (rowLength == rowBytes.length) {
+            rowBytes = Arrays.copyOf(rowBytes, rowLength * 2);
+        }
+        rowBytes[rowLength++] = value;
+    }
+}
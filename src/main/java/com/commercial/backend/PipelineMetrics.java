@@ -0,0 +1,93 @@
+package com.commercial.backend;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timers and counters of the upload, conversion, JAR and report stages, published through the
+ * Actuator metrics and Prometheus endpoints.
+ *
+ * <p>Upload throughput per table is {@code rate(upload_rows_total[5m])} in Prometheus; the
+ * throughput of single loads is recorded as well, for loads that are too rare to rate.</p>
+ */
+@Component
+public class PipelineMetrics {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ExcelToCsvService excelToCsvService;
+
+    @PostConstruct
+    void registerGauges() {
+        Gauge.builder("excel.format.cache.hit.ratio", excelToCsvService, ExcelToCsvService::getFormatCacheHitRate)
+                .description("Share of cell formatting served from the format cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Records the tables that were loaded; skipped and failed files only count as such.
+     */
+    void recordUploads(List<FileLoadResult> results) {
+        for (FileLoadResult result : results) {
+            String outcome = !result.isSuccessful() ? "failed" : result.unchanged() ? "unchanged" : "loaded";
+            String table = result.tableName() != null ? result.tableName() : "unknown";
+            Counter.builder("upload.files").tag("table", table).tag("outcome", outcome)
+                    .register(meterRegistry).increment();
+            if (!"loaded".equals(outcome)) continue;
+
+            Counter.builder("upload.rows").tag("table", table)
+                    .register(meterRegistry).increment(result.rowCount());
+            Timer.builder("upload.duration").tag("table", table)
+                    .register(meterRegistry).record(result.elapsedMillis(), TimeUnit.MILLISECONDS);
+            if (result.elapsedMillis() > 0) {
+                DistributionSummary.builder("upload.throughput").baseUnit("rows/s").tag("table", table)
+                        .register(meterRegistry).record(result.rowCount() * 1000.0 / result.elapsedMillis());
+            }
+        }
+    }
+
+    /**
+     * Latency of the insert batches flushed into a table.
+     */
+    Timer flushTimer(String tableName) {
+        return Timer.builder("upload.batch.flush").tag("table", tableName).register(meterRegistry);
+    }
+
+    /**
+     * Duration of a conversion stage. Chunks of a chunked conversion are recorded under their
+     * procedure, so each procedure is one time series however many chunks it runs.
+     */
+    void recordStage(StageScheduler.StageTiming timing) {
+        if (timing.status() == StageScheduler.Status.SKIPPED) return;
+        int chunk = timing.name().indexOf('#');
+        recordProcedure(chunk < 0 ? timing.name() : timing.name().substring(0, chunk),
+                timing.status().name().toLowerCase(), TimeUnit.MILLISECONDS.toNanos(timing.durationMillis()));
+    }
+
+    void recordProcedure(String procedureName, String status, long elapsedNanos) {
+        Timer.builder("conversion.procedure").tag("procedure", procedureName).tag("status", status)
+                .register(meterRegistry).record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordJarRun(String run, boolean successful, long elapsedNanos) {
+        Timer.builder("jar.run").tag("run", run).tag("outcome", successful ? "success" : "failure")
+                .register(meterRegistry).record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordReport(String report, long rows, long bytes) {
+        Counter.builder("report.rows").tag("report", report).register(meterRegistry).increment(rows);
+        DistributionSummary.builder("report.size").baseUnit("bytes").tag("report", report)
+                .register(meterRegistry).record(bytes);
+    }
+}
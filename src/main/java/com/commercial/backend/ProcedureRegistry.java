@@ -0,0 +1,205 @@
+package com.commercial.backend;
+
+import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Installs the stored procedures from their {@code /SQL} scripts and remembers which version
+ * of each script is installed.
+ *
+ * <p>Every installed procedure is recorded with the SHA-256 of its script in
+ * {@code procedure_registry}. A procedure is only dropped and created again when its script
+ * changed or the procedure is gone from the schema, so a conversion or JAR run no longer
+ * takes the metadata locks of a DROP and CREATE for every procedure it calls.</p>
+ */
+@Repository
+public class ProcedureRegistry {
+
+    private static final Logger logger = Logger.getLogger(ProcedureRegistry.class.getName());
+
+    private static final String CREATE_REGISTRY_TABLE = "CREATE TABLE IF NOT EXISTS procedure_registry ("
+            + "procedure_name VARCHAR(64) NOT NULL PRIMARY KEY, "
+            + "script_path VARCHAR(255) NOT NULL, "
+            + "script_checksum CHAR(64) NOT NULL, "
+            + "installed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP)";
+    private static final String SELECT_INSTALLED_CHECKSUM = "SELECT r.script_checksum FROM procedure_registry r "
+            + "JOIN information_schema.routines p ON p.routine_schema = DATABASE() "
+            + "AND p.routine_name = r.procedure_name AND p.routine_type = 'PROCEDURE' "
+            + "WHERE r.procedure_name = ?";
+    private static final String UPSERT_REGISTRY = "INSERT INTO procedure_registry "
+            + "(procedure_name, script_path, script_checksum) VALUES (?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE script_path = VALUES(script_path), script_checksum = VALUES(script_checksum)";
+
+    @Autowired
+    @Qualifier("conversionDataSource")
+    private DataSource dataSource;
+
+    @Autowired
+    private CommercialConstants commercialConstants;
+
+    @Value("${conversion.procedures.preinstall.enabled:true}")
+    private boolean preinstallEnabled;
+
+    private final Map<String, Script> scripts = new ConcurrentHashMap<>();
+
+    private volatile boolean tableCreated;
+
+    /**
+     * The procedures of a data conversion, by name, with their scripts: the truncate procedure
+     * first, then the borrower segment, which the other segments read, then the other segments.
+     */
+    Map<String, String> segmentProcedures() {
+        Map<String, String> procedures = new LinkedHashMap<>();
+        procedures.put(commercialConstants.getTruncateAndDropProc(), commercialConstants.getTruncateSqlPath());
+        procedures.put(commercialConstants.getBorrowerProc(), commercialConstants.getBorrowerSqlPath());
+        procedures.put(commercialConstants.getAddressProc(), commercialConstants.getAddressSqlPath());
+        procedures.put(commercialConstants.getCreditFacilityProc(), commercialConstants.getCreditFacilitySqlPath());
+        procedures.put(commercialConstants.getDishonourProc(), commercialConstants.getDishonourSqlPath());
+        procedures.put(commercialConstants.getGuarantorProc(), commercialConstants.getGuarantorSqlPath());
+        procedures.put(commercialConstants.getRelationshipProc(), commercialConstants.getRelationshipSqlPath());
+        procedures.put(commercialConstants.getSecurityProc(), commercialConstants.getSecuritySqlPath());
+        return procedures;
+    }
+
+    /**
+     * The procedures the conversion and the JAR runs call, by name, with their scripts.
+     */
+    Map<String, String> knownProcedures() {
+        Map<String, String> procedures = segmentProcedures();
+        procedures.put(commercialConstants.getTruncateCreateTableProcedure(), commercialConstants.getTruncateCreateTablePath());
+        procedures.put(commercialConstants.getDuplicateTablesProcedure(), commercialConstants.getDuplicateTableSqlPath());
+        procedures.put(commercialConstants.getDropBackupProcedure(), commercialConstants.getDropBackupPath());
+        return procedures;
+    }
+
+    /**
+     * Installs every known procedure once the application is up, so the first run does not pay
+     * for it. A database that is not reachable yet only costs a warning; the runs install what
+     * they need themselves.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preinstall() {
+        if (!preinstallEnabled) return;
+
+        int installed = 0;
+        for (Map.Entry<String, String> procedure : knownProcedures().entrySet()) {
+            try {
+                if (ensureInstalled(procedure.getKey(), procedure.getValue())) installed++;
+            } catch (IOException | SQLException e) {
+                logger.warning("Cannot preinstall procedure " + procedure.getKey() + ": " + e.getMessage());
+            }
+        }
+        logger.info("Stored procedures checked at startup, " + installed + " installed or updated");
+    }
+
+    /**
+     * Creates the procedure from its script unless the same script is already installed.
+     *
+     * @return true if the procedure was (re-)created
+     */
+    public boolean ensureInstalled(String procedureName, String sqlFilePath) throws IOException, SQLException {
+        Script script = script(sqlFilePath);
+        ensureTable();
+
+        // One install at a time, so concurrent runs do not drop a procedure the other just created
+        synchronized (this) {
+            try (Connection connection = dataSource.getConnection()) {
+                if (script.checksum().equals(findInstalledChecksum(connection, procedureName))) {
+                    return false;
+                }
+
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(String.format(commercialConstants.getDropProcedureTemplate(), procedureName));
+                    statement.execute(script.sql());
+                }
+                try (PreparedStatement upsert = connection.prepareStatement(UPSERT_REGISTRY)) {
+                    upsert.setString(1, procedureName);
+                    upsert.setString(2, sqlFilePath);
+                    upsert.setString(3, script.checksum());
+                    upsert.executeUpdate();
+                }
+            }
+        }
+        logger.info("Installed procedure " + procedureName + " from " + sqlFilePath);
+        return true;
+    }
+
+    /**
+     * Installed checksum of a procedure that still exists, null if it was never recorded or has
+     * been dropped since.
+     */
+    private String findInstalledChecksum(Connection connection, String procedureName) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(SELECT_INSTALLED_CHECKSUM)) {
+            select.setString(1, procedureName);
+            try (ResultSet resultSet = select.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    private void ensureTable() throws SQLException {
+        if (tableCreated) return;
+
+        synchronized (this) {
+            if (tableCreated) return;
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_REGISTRY_TABLE);
+            }
+            tableCreated = true;
+        }
+    }
+
+    /**
+     * Scripts come from the classpath and cannot change while the application runs, so each is
+     * read and checksummed once.
+     */
+    private Script script(String sqlFilePath) throws IOException {
+        Script script = scripts.get(sqlFilePath);
+        if (script != null) return script;
+
+        try (InputStream inputStream = getClass().getResourceAsStream(sqlFilePath)) {
+            if (inputStream == null) {
+                throw new IOException("SQL file not found: " + sqlFilePath);
+            }
+            String sql = IOUtils.toString(inputStream, commercialConstants.getUtf8());
+            script = new Script(sql, sha256(sql));
+        }
+        scripts.put(sqlFilePath, script);
+        return script;
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Script(String sql, String checksum) {
+    }
+}
@@ -24,6 +24,8 @@ import org.springframework.web.bind.annotation.ResponseBody;
 public class ReportGenerationService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
 
     public ReportGenerationService() {
     }
@@ -60,7 +62,9 @@ public class ReportGenerationService {
                 HttpHeaders headers = new HttpHeaders();
                 headers.setContentType(MediaType.parseMediaType("text/csv"));
                 headers.setContentDisposition(ContentDisposition.attachment().filename("status_table.csv").build());
-                return new ResponseEntity(csvContent.toString().getBytes(), headers, HttpStatus.OK);
+                byte[] report = csvContent.toString().getBytes();
+                this.pipelineMetrics.recordReport("status", (long)resultList.size(), (long)report.length);
+                return new ResponseEntity(report, headers, HttpStatus.OK);
             }
         } else {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.TEXT_PLAIN).body("Error: Query not found in properties file.".getBytes());
@@ -0,0 +1,121 @@
+package com.commercial.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Key and content hash of the rows of an uploaded table, used to find the rows that changed
+ * between two uploads of the same file.
+ *
+ * <p>The hash is 64-bit FNV-1a over the sanitized field values, so it can be computed straight
+ * from the tokenizer's buffer or from a sampled row and gives the same result for both.</p>
+ *
+ * <p>Keys are recorded in the {@link ColumnType#canonicalValue(String) canonical spelling} of
+ * the key column's type, which is what the live table is compared against. Rows without a key
+ * are recorded with an empty one and {@linkplain #hasMissingKeys() flagged}, as their NULL key
+ * cannot be matched.</p>
+ *
+ * <p>Fingerprints are only held until they are {@link #drain() drained} into the upload's
+ * {@code upload_row_hash_new} table, which the comparison with the previous upload runs
+ * against, so memory does not grow with the size of the table.</p>
+ */
+class RowFingerprints {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final char FIELD_SEPARATOR = '\u001F';
+    private static final char MISSING_FIELD = '\u001E';
+
+    private final int keyColumn;
+    private final ColumnType keyType;
+    private final int columnCount;
+    private final List<Fingerprint> pending = new ArrayList<>();
+    private boolean missingKeys;
+
+    RowFingerprints(int keyColumn, ColumnType keyType, int columnCount) {
+        this.keyColumn = keyColumn;
+        this.keyType = keyType;
+        this.columnCount = columnCount;
+    }
+
+    /**
+     * @throws IllegalArgumentException when the key does not fit the key column's type
+     */
+    void record(CsvRows rows) {
+        String key = key(rows);
+        if (key == null) {
+            missingKeys = true;
+            key = "";
+        }
+        pending.add(new Fingerprint(key, hash(rows)));
+    }
+
+    /**
+     * True when a recorded row had no key, or one the key column stores as NULL.
+     */
+    boolean hasMissingKeys() {
+        return missingKeys;
+    }
+
+    int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * The fingerprints recorded since the last call.
+     */
+    List<Fingerprint> drain() {
+        List<Fingerprint> fingerprints = List.copyOf(pending);
+        pending.clear();
+        return fingerprints;
+    }
+
+    String key(CsvRows rows) {
+        return keyColumn < rows.fieldCount() ? keyType.canonicalValue(rows.field(keyColumn)) : null;
+    }
+
+    long hash(CsvRows rows) {
+        return rows.isBuffered() ? hash(rows.bufferedRow()) : hash(rows.tokenizer());
+    }
+
+    private long hash(CsvTokenizer tokenizer) {
+        char[] buffer = tokenizer.buffer();
+        long hash = FNV_OFFSET_BASIS;
+        for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+            if (columnIndex < tokenizer.fieldCount()) {
+                int start = tokenizer.fieldStart(columnIndex);
+                int end = start + tokenizer.fieldLength(columnIndex);
+                for (int i = start; i < end; i++) {
+                    hash = mix(hash, buffer[i]);
+                }
+            } else {
+                hash = mix(hash, MISSING_FIELD);
+            }
+            hash = mix(hash, FIELD_SEPARATOR);
+        }
+        return hash;
+    }
+
+    private long hash(String[] row) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int columnIndex = 0; columnIndex < columnCount; columnIndex++) {
+            if (columnIndex < row.length) {
+                String value = row[columnIndex];
+                for (int i = 0; i < value.length(); i++) {
+                    hash = mix(hash, value.charAt(i));
+                }
+            } else {
+                hash = mix(hash, MISSING_FIELD);
+            }
+            hash = mix(hash, FIELD_SEPARATOR);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, char character) {
+        return (hash ^ character) * FNV_PRIME;
+    }
+
+    record Fingerprint(String key, long hash) {
+    }
+}
@@ -21,9 +21,8 @@ public class RunJarBackUpDataService {
 
     @Autowired
     CommercialConstants commercialConstants;
-
-    @Value("${jar.file.path}")
-    private String jarFilePath;
+    @Autowired
+    CicGeneratorRunner cicGeneratorRunner;
 
     @Value("${config.folder.path}")
     private String configFolderPath;
@@ -33,7 +32,6 @@ public class RunJarBackUpDataService {
         dataConversionService.executeProcedure(commercialConstants.getTruncateCreateTableProcedure(),commercialConstants.getTruncateCreateTablePath());
         dataConversionService.executeProcedure(commercialConstants.getDuplicateTablesProcedure(),commercialConstants.getDuplicateTableSqlPath());
         dataConversionService.executeProcedure(commercialConstants.getDropBackupProcedure(),commercialConstants.getDropBackupPath());
-        dataConversionService.executeProcedure(commercialConstants.getCountRowsTable(),commercialConstants.getCountRowsTablePath());
 
         try {
             // Load configuration properties from application.properties
@@ -61,27 +59,11 @@ public class RunJarBackUpDataService {
             dataConversionService.runDuplicateProcedure(reportedDate);
             dataConversionService.runProcedure(commercialConstants.getDropBackupProcedure());
             dataConversionService.runProcedure(commercialConstants.getTruncateCreateTableProcedure());
-            // Build the command to run the JAR file
-
-            ProcessBuilder processBuilder = new ProcessBuilder(commercialConstants.getJavaCommand(), commercialConstants.getJarOption(), jarFilePath);
-            processBuilder.environment().put(commercialConstants.getSpringDatasourceEnvUrl(), properties.getProperty(commercialConstants.getSpringDatasourceUrlProperty()));
-            processBuilder.environment().put(commercialConstants.getSpringDatasourceEnvUsername(), properties.getProperty(commercialConstants.getSpringDatasourceUsernameProperty()));
-            processBuilder.environment().put(commercialConstants.getSpringDatasourceEnvPassword(), properties.getProperty(commercialConstants.getSpringDatasourcePasswordProperty()));
-            processBuilder.environment().put(commercialConstants.getSpringJpaHibernateDdlAutoEnv(), properties.getProperty(commercialConstants.getSpringJpaHibernateDdlAutoProperty()));
-
-            // Add additional properties from headSeg.properties to the environment
-            for (String propertyName : headSegProperties.stringPropertyNames()) {
-                processBuilder.environment().put(propertyName, headSegProperties.getProperty(propertyName));
-            }
-
-            // Start the process to run the JAR file
-            Process process = processBuilder.start();
-
-            // Wait for the process to complete
-            int exitCode = process.waitFor();
-            int rowCount = dataConversionService.countRows(commercialConstants.getCountRowsTable(), commercialConstants.getStatusTable());
+            // Run the generator, in a JVM of its own or in process
+            boolean successful = cicGeneratorRunner.run("run-jar-backup", properties, headSegProperties);
+            int rowCount = dataConversionService.countRows(commercialConstants.getStatusTable());
 
-            if (exitCode == 0) {
+            if (successful) {
                 String message = "Success! Your file for submission to the CICs has been generated. "
                         + "Backup is created in the Database. "
                         + "The file contains " + rowCount + " records.";
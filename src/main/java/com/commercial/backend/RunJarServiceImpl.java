@@ -16,9 +16,6 @@ import java.util.Properties;
 @RequestMapping("/api")
 public class RunJarServiceImpl  {
 
-    @Value("${jar.file.path}")
-    private String jarFilePath;
-
     @Value("${config.folder.path}")
     private String configFolderPath;
 
@@ -26,11 +23,12 @@ public class RunJarServiceImpl  {
     DataConversionService dataConversionService;
     @Autowired
     CommercialConstants commercialConstants;
+    @Autowired
+    CicGeneratorRunner cicGeneratorRunner;
 
     @GetMapping("/run-jar")
     public String runJar() throws SQLException, IOException {
         dataConversionService.executeProcedure(commercialConstants.getTruncateCreateTableProcedure(),commercialConstants.getTruncateCreateTablePath());
-        dataConversionService.executeProcedure(commercialConstants.getCountRowsTable(),commercialConstants.getCountRowsTablePath());
         try {
             // Load configuration properties from application.properties
             Properties properties = new Properties();
@@ -51,26 +49,11 @@ public class RunJarServiceImpl  {
             }
             dataConversionService.runProcedure(commercialConstants.getTruncateCreateTableProcedure());
 
-            // Build the command to run the JAR file
-            ProcessBuilder processBuilder = new ProcessBuilder(commercialConstants.getJavaCommand(), commercialConstants.getJarOption(), jarFilePath);
-            processBuilder.environment().put(commercialConstants.getSpringDatasourceEnvUrl(), properties.getProperty(commercialConstants.getSpringDatasourceUrlProperty()));
-            processBuilder.environment().put(commercialConstants.getSpringDatasourceEnvUsername(), properties.getProperty(commercialConstants.getSpringDatasourceUsernameProperty()));
-            processBuilder.environment().put(commercialConstants.getSpringDatasourceEnvPassword(), properties.getProperty(commercialConstants.getSpringDatasourcePasswordProperty()));
-            processBuilder.environment().put(commercialConstants.getSpringJpaHibernateDdlAutoEnv(), properties.getProperty(commercialConstants.getSpringJpaHibernateDdlAutoProperty()));
-
-            // Add additional properties from headSeg.properties to the environment
-            for (String propertyName : headSegProperties.stringPropertyNames()) {
-                processBuilder.environment().put(propertyName, headSegProperties.getProperty(propertyName));
-            }
-
-            // Start the process to run the JAR file
-            Process process = processBuilder.start();
-
-            // Wait for the process to complete
-            int exitCode = process.waitFor();
-            int rowCount = dataConversionService.countRows(commercialConstants.getCountRowsTable(), commercialConstants.getStatusTable());
+            // Run the generator, in a JVM of its own or in process
+            boolean successful = cicGeneratorRunner.run("run-jar", properties, headSegProperties);
+            int rowCount = dataConversionService.countRows(commercialConstants.getStatusTable());
 
-            if (exitCode == 0) {
+            if (successful) {
                 String message = "Success! Your file for submission to the CICs has been generated."
                         + "The file contains " + rowCount + " records.";
                 return message;
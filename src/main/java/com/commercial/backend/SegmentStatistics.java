@@ -0,0 +1,224 @@
+package com.commercial.backend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Row counts of the segment tables, fetched for all tables in one query.
+ *
+ * <p>Besides exact counts, the counts can come from the table statistics InnoDB keeps, which
+ * costs nothing but is only an estimate, or from {@code segment_statistics}, where procedures
+ * can add the rows they insert as they go:</p>
+ * <pre>
+ * INSERT INTO segment_statistics (table_name, row_count) VALUES ('borrower_seg', ROW_COUNT())
+ *     ON DUPLICATE KEY UPDATE row_count = row_count + VALUES(row_count);
+ * </pre>
+ * <p>Tables no procedure reported on are counted exactly.</p>
+ *
+ * <p>Counts taken for a conversion run use the conversion pool; only the counts the UI asks for
+ * use the reporting pool.</p>
+ */
+@Repository
+public class SegmentStatistics {
+
+    private static final Logger logger = Logger.getLogger(SegmentStatistics.class.getName());
+
+    private static final String CREATE_STATISTICS_TABLE = "CREATE TABLE IF NOT EXISTS segment_statistics ("
+            + "table_name VARCHAR(128) NOT NULL PRIMARY KEY, "
+            + "row_count BIGINT NOT NULL, "
+            + "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP)";
+    private static final String DELETE_STATISTICS = "DELETE FROM segment_statistics";
+    // Without this MySQL 8 serves table_rows from a cache that is up to a day old
+    private static final String DISABLE_STATISTICS_CACHE = "SET SESSION information_schema_stats_expiry = 0";
+    // The setting cannot be a SET_VAR hint, so the pooled connection gets the server's value back
+    private static final String RESTORE_STATISTICS_CACHE = "SET SESSION information_schema_stats_expiry = DEFAULT";
+
+    enum Mode {
+        /** COUNT(*) of every table. */
+        EXACT,
+        /** The row estimates of the table statistics. */
+        APPROXIMATE,
+        /** What the procedures recorded in segment_statistics, exact counts for the rest. */
+        COLLECTED;
+
+        /**
+         * @throws IllegalArgumentException for an unknown mode
+         */
+        static Mode of(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    @Autowired
+    @Qualifier("conversionDataSource")
+    private DataSource conversionDataSource;
+
+    @Autowired
+    @Qualifier("reportingDataSource")
+    private DataSource reportingDataSource;
+
+    private volatile boolean tableCreated;
+
+    /**
+     * Row counts by table name for a conversion run, in the order of the given tables.
+     */
+    Map<String, Long> rowCounts(List<String> tableNames, Mode mode) throws SQLException {
+        return rowCounts(conversionDataSource, tableNames, mode);
+    }
+
+    /**
+     * Row counts by table name for the UI, in the order of the given tables.
+     */
+    Map<String, Long> reportRowCounts(List<String> tableNames, Mode mode) throws SQLException {
+        return rowCounts(reportingDataSource, tableNames, mode);
+    }
+
+    private Map<String, Long> rowCounts(DataSource dataSource, List<String> tableNames, Mode mode) throws SQLException {
+        if (tableNames.isEmpty()) return Collections.emptyMap();
+
+        try (Connection connection = dataSource.getConnection()) {
+            Map<String, Long> counts = switch (mode) {
+                case EXACT -> exactCounts(connection, tableNames);
+                case APPROXIMATE -> approximateCounts(connection, tableNames);
+                case COLLECTED -> collectedCounts(connection, tableNames);
+            };
+
+            Map<String, Long> ordered = new LinkedHashMap<>();
+            for (String tableName : tableNames) {
+                ordered.put(tableName, counts.getOrDefault(tableName, 0L));
+            }
+            return ordered;
+        }
+    }
+
+    long exactCount(String tableName) throws SQLException {
+        return rowCounts(List.of(tableName), Mode.EXACT).get(tableName);
+    }
+
+    /**
+     * Forgets the collected counts; called before the procedures fill the segment tables anew.
+     */
+    void resetCollected() throws SQLException {
+        try (Connection connection = conversionDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            ensureTable(connection);
+            statement.executeUpdate(DELETE_STATISTICS);
+        }
+    }
+
+    private Map<String, Long> exactCounts(Connection connection, List<String> tableNames) throws SQLException {
+        StringBuilder query = new StringBuilder("SELECT ");
+        for (int i = 0; i < tableNames.size(); i++) {
+            if (i > 0) query.append(", ");
+            query.append("(SELECT COUNT(*) FROM ").append(tableNames.get(i)).append(')');
+        }
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query.toString())) {
+            resultSet.next();
+            for (int i = 0; i < tableNames.size(); i++) {
+                counts.put(tableNames.get(i), resultSet.getLong(i + 1));
+            }
+        }
+        return counts;
+    }
+
+    private Map<String, Long> approximateCounts(Connection connection, List<String> tableNames) throws SQLException {
+        boolean cacheDisabled = false;
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(DISABLE_STATISTICS_CACHE);
+            cacheDisabled = true;
+        } catch (SQLException e) {
+            // Servers before 8.0 have no cache to bypass
+            logger.fine("Cannot disable the statistics cache: " + e.getMessage());
+        }
+
+        String query = "SELECT table_name, table_rows FROM information_schema.tables "
+                + "WHERE table_schema = DATABASE() AND table_name IN (" + placeholders(tableNames.size()) + ")";
+        try {
+            return selectCounts(connection, query, tableNames);
+        } finally {
+            if (cacheDisabled) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(RESTORE_STATISTICS_CACHE);
+                }
+            }
+        }
+    }
+
+    private Map<String, Long> collectedCounts(Connection connection, List<String> tableNames) throws SQLException {
+        ensureTable(connection);
+
+        String query = "SELECT table_name, row_count FROM segment_statistics "
+                + "WHERE table_name IN (" + placeholders(tableNames.size()) + ")";
+        Map<String, Long> counts = selectCounts(connection, query, tableNames);
+
+        List<String> missing = new ArrayList<>();
+        for (String tableName : tableNames) {
+            if (!counts.containsKey(tableName)) missing.add(tableName);
+        }
+        if (!missing.isEmpty()) {
+            counts.putAll(exactCounts(connection, missing));
+        }
+        return counts;
+    }
+
+    /**
+     * Runs a query of (table name, count) rows, matching the names as MySQL compares them.
+     */
+    private static Map<String, Long> selectCounts(Connection connection, String query, List<String> tableNames)
+            throws SQLException {
+        Map<String, String> requested = new LinkedHashMap<>();
+        for (String tableName : tableNames) {
+            requested.put(tableName.toLowerCase(Locale.ROOT), tableName);
+        }
+
+        Map<String, Long> counts = new LinkedHashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(query)) {
+            for (int i = 0; i < tableNames.size(); i++) {
+                select.setString(i + 1, tableNames.get(i));
+            }
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    String tableName = requested.get(resultSet.getString(1).toLowerCase(Locale.ROOT));
+                    if (tableName != null) {
+                        counts.put(tableName, resultSet.getLong(2));
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private void ensureTable(Connection connection) throws SQLException {
+        if (tableCreated) return;
+
+        synchronized (this) {
+            if (tableCreated) return;
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_STATISTICS_TABLE);
+            }
+            tableCreated = true;
+        }
+    }
+}
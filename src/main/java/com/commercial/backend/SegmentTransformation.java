@@ -0,0 +1,331 @@
+package com.commercial.backend;
+
+import com.mysql.cj.jdbc.JdbcConnection;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * One run of a {@link SegmentTransformer}: the calling thread streams the source query and
+ * hands the rows in batches to workers, which map them and write the output with batched
+ * inserts, each on its own connection.
+ *
+ * <p>Every worker commits every {@code commitRows} rows; the rest is committed once the source is
+ * read and all workers are done, so without a commit interval a run is all or nothing. When a
+ * worker fails or the run is cancelled, reading stops, the workers roll back what they have not
+ * committed and the run throws. Rows committed by then stay behind, as after a failing
+ * procedure, until the truncate stage of the next conversion.</p>
+ *
+ * <p>Before it opens any connection, a run takes one permit per connection it holds, the
+ * reader's and one per worker, all at once.</p>
+ */
+final class SegmentTransformation implements StageScheduler.Stage {
+
+    private static final Logger logger = Logger.getLogger(SegmentTransformation.class.getName());
+    private static final List<String[]> END_OF_ROWS = Collections.emptyList();
+    private static final int FALLBACK_FETCH_SIZE = 1000;
+
+    private final SegmentTransformer transformer;
+    private final DataSource dataSource;
+    private final Executor workerExecutor;
+    private final Semaphore connectionPermits;
+    private final int workers;
+    private final int batchRows;
+    private final long commitRows;
+
+    private final BlockingQueue<List<String[]>> batches;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile Statement sourceStatement;
+    private Map<String, Integer> columnIndexes;
+
+    SegmentTransformation(SegmentTransformer transformer, DataSource dataSource, Executor workerExecutor,
+                          Semaphore connectionPermits, int workers, int batchRows, long commitRows) {
+        this.transformer = transformer;
+        this.dataSource = dataSource;
+        this.workerExecutor = workerExecutor;
+        this.connectionPermits = connectionPermits;
+        this.workers = Math.max(1, workers);
+        this.batchRows = Math.max(1, batchRows);
+        this.commitRows = commitRows;
+        this.batches = new ArrayBlockingQueue<>(this.workers * 2);
+    }
+
+    @Override
+    public void run() throws SQLException, InterruptedException {
+        if (!acquireConnections()) {
+            throwFailure();
+        }
+        try {
+            transform();
+        } finally {
+            connectionPermits.release(workers + 1);
+        }
+    }
+
+    /**
+     * Waits for the permits of the reader's and the workers' connections.
+     *
+     * @return false if the run was cancelled while waiting
+     */
+    private boolean acquireConnections() throws InterruptedException {
+        while (failure.get() == null) {
+            if (connectionPermits.tryAcquire(workers + 1, 100, TimeUnit.MILLISECONDS)) return true;
+        }
+        return false;
+    }
+
+    private void transform() throws SQLException {
+        long startTime = System.currentTimeMillis();
+        List<CompletableFuture<Worker>> results = new ArrayList<>();
+
+        long sourceRows;
+        try {
+            sourceRows = readSource(results);
+        } finally {
+            endWorkers();
+        }
+
+        List<Worker> finished = new ArrayList<>();
+        for (CompletableFuture<Worker> result : results) {
+            try {
+                finished.add(result.join());
+            } catch (CompletionException e) {
+                failure.compareAndSet(null, e.getCause());
+            }
+        }
+        long writtenRows = finish(finished);
+        if (failure.get() != null) {
+            throwFailure();
+        }
+
+        logger.info("Transformed " + sourceRows + " rows of " + transformer.procedureName() + " into "
+                + writtenRows + " rows of " + transformer.targetTable() + " with " + workers + " workers in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+    }
+
+    private void throwFailure() throws SQLException {
+        Throwable error = failure.get();
+        if (error instanceof SQLException sqlException) throw sqlException;
+        if (error instanceof RuntimeException runtimeException) throw runtimeException;
+        throw new IllegalStateException(error);
+    }
+
+    @Override
+    public void cancel() {
+        failure.compareAndSet(null, new CancellationException(transformer.procedureName() + " cancelled"));
+        Statement statement = sourceStatement;
+        if (statement == null) return;
+        try {
+            statement.cancel();
+        } catch (SQLException e) {
+            logger.warning("Cannot cancel the source query of " + transformer.procedureName() + ": " + e.getMessage());
+        }
+    }
+
+    private long readSource(List<CompletableFuture<Worker>> results) throws SQLException {
+        long rows = 0;
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // MySQL only streams with this fetch size, otherwise it buffers the whole result
+            statement.setFetchSize(connection.isWrapperFor(JdbcConnection.class) ? Integer.MIN_VALUE : FALLBACK_FETCH_SIZE);
+            sourceStatement = statement;
+            try (ResultSet resultSet = statement.executeQuery(transformer.sourceQuery())) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                Map<String, Integer> indexes = new HashMap<>();
+                for (int i = columnCount; i >= 1; i--) {
+                    indexes.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i - 1);
+                }
+                columnIndexes = indexes;
+
+                for (int i = 0; i < workers; i++) {
+                    results.add(CompletableFuture.supplyAsync(this::work, workerExecutor));
+                }
+
+                List<String[]> batch = new ArrayList<>(batchRows);
+                while (failure.get() == null && resultSet.next()) {
+                    String[] values = new String[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        values[i] = resultSet.getString(i + 1);
+                    }
+                    batch.add(values);
+                    rows++;
+                    if (batch.size() == batchRows) {
+                        hand(batch);
+                        batch = new ArrayList<>(batchRows);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    hand(batch);
+                }
+                if (failure.get() != null) {
+                    // Closing a streaming result reads it to the end unless the query is stopped
+                    statement.cancel();
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            // A failed worker or a cancel also makes the cursor fail; report the cause instead
+            failure.compareAndSet(null, e);
+        } finally {
+            sourceStatement = null;
+        }
+        return rows;
+    }
+
+    private void hand(List<String[]> batch) {
+        try {
+            while (failure.get() == null) {
+                if (batches.offer(batch, 100, TimeUnit.MILLISECONDS)) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Sends every worker the end marker. After a failure the workers may have stopped taking
+     * batches, so the queued ones are dropped to make room for the markers.
+     */
+    private void endWorkers() {
+        int ended = 0;
+        try {
+            while (ended < workers && failure.get() == null) {
+                if (batches.offer(END_OF_ROWS, 100, TimeUnit.MILLISECONDS)) ended++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        }
+        if (ended < workers) {
+            batches.clear();
+            for (int i = 0; i < workers; i++) {
+                batches.offer(END_OF_ROWS);
+            }
+        }
+    }
+
+    /**
+     * Writes batches until the end marker and leaves the last transaction open, for
+     * {@link #finish} to commit once every worker is done.
+     */
+    private Worker work() {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            return new Worker(connection, writeBatches(connection));
+        } catch (SQLException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+            if (connection != null) close(connection, false);
+            throw new CompletionException(e);
+        }
+    }
+
+    private long finish(List<Worker> finished) {
+        long rows = 0;
+        boolean commit = failure.get() == null;
+        for (Worker worker : finished) {
+            close(worker.connection(), commit);
+            rows += worker.rows();
+        }
+        return rows;
+    }
+
+    private void close(Connection connection, boolean commit) {
+        try (connection) {
+            if (commit && failure.get() == null) {
+                connection.commit();
+            } else {
+                connection.rollback();
+            }
+        } catch (SQLException e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    private long writeBatches(Connection connection) throws SQLException {
+        List<String> columns = transformer.targetColumns();
+        String insertQuery = "INSERT INTO " + transformer.targetTable() + " (" + String.join(", ", columns)
+                + ") VALUES (" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+
+        try (BatchInserter inserter = new BatchInserter(connection, transformer.targetTable(), insertQuery,
+                columns.size(), batchRows, Long.MAX_VALUE, Long.MAX_VALUE / 1_000_000L, true)) {
+            inserter.setCommitInterval(commitRows, null, null);
+            SegmentTransformer.RowWriter out = values -> {
+                for (int i = 0; i < values.length; i++) {
+                    inserter.setValue(i, values[i]);
+                }
+                inserter.addRow(values.length);
+            };
+            Row row = new Row();
+
+            while (true) {
+                List<String[]> batch = takeBatch();
+                if (batch == END_OF_ROWS) break;
+                if (failure.get() != null) continue;
+                for (String[] values : batch) {
+                    row.values = values;
+                    transformer.transform(row, out);
+                }
+            }
+            if (failure.get() != null) {
+                throw new CancellationException(transformer.procedureName() + " stopped after another failure");
+            }
+            inserter.flush();
+            return inserter.getRowCount();
+        }
+    }
+
+    private List<String[]> takeBatch() {
+        try {
+            return batches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException(transformer.procedureName() + " interrupted");
+        }
+    }
+
+    private record Worker(Connection connection, long rows) {
+    }
+
+    private final class Row implements SegmentTransformer.SourceRow {
+
+        String[] values;
+
+        @Override
+        public String get(int columnIndex) {
+            return values[columnIndex];
+        }
+
+        @Override
+        public String get(String columnLabel) {
+            Integer index = columnIndexes.get(columnLabel.toLowerCase(Locale.ROOT));
+            if (index == null) {
+                throw new IllegalArgumentException("No column " + columnLabel + " in the source of "
+                        + transformer.procedureName());
+            }
+            return values[index];
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.commercial.backend;
+
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the segments listed in {@code conversion.engine.java-segments} through their
+ * {@link SegmentTransformer} beans instead of their stored procedures, so a segment is mapped
+ * by as many application threads as configured rather than by one database thread.
+ *
+ * <p>A Java segment holds a connection for its reader and one per worker until it finishes,
+ * which the conversion pool cannot always give to several segments at once. So every
+ * conversion stage takes its connections from {@link #connectionPermits()}, sized to the
+ * pool, before it asks the pool for them. A segment takes all of its permits at once, so two
+ * segments never each hold part of what they need, and its workers are capped to what the
+ * pool can hold.</p>
+ */
+@Service
+public class SegmentTransformationEngine {
+
+    @Autowired
+    @Qualifier("conversionDataSource")
+    private DataSource dataSource;
+
+    @Autowired(required = false)
+    private List<SegmentTransformer> transformers = Collections.emptyList();
+
+    @Autowired
+    @Qualifier("segmentTransformExecutor")
+    private ThreadPoolTaskExecutor segmentTransformExecutor;
+
+    @Value("${conversion.engine.java-segments:}")
+    private String javaSegments;
+
+    @Value("${conversion.engine.workers:4}")
+    private int workers;
+
+    @Value("${conversion.engine.batch-rows:1000}")
+    private int batchRows;
+
+    @Value("${conversion.engine.commit-rows:50000}")
+    private long commitRows;
+
+    private int poolSize;
+    private Semaphore connectionPermits;
+
+    @PostConstruct
+    void sizeConnectionPermits() {
+        poolSize = dataSource instanceof HikariDataSource pool ? pool.getMaximumPoolSize() : Integer.MAX_VALUE;
+        // Fair, so a segment waiting for several permits is not overtaken by every procedure
+        connectionPermits = new Semaphore(poolSize, true);
+    }
+
+    /**
+     * Permits for the connections of the conversion pool that the conversion stages hold.
+     */
+    Semaphore connectionPermits() {
+        return connectionPermits;
+    }
+
+    /**
+     * True if the segment of this procedure is configured to run in Java.
+     *
+     * @throws IllegalStateException if it is configured but has no transformer
+     */
+    boolean runsInJava(String procedureName) {
+        if (!javaSegmentNames().contains(procedureName.toLowerCase(Locale.ROOT))) return false;
+        transformer(procedureName);
+        return true;
+    }
+
+    StageScheduler.Stage stage(String procedureName) {
+        if (poolSize < 2) {
+            throw new IllegalStateException("Segment " + procedureName + " runs in Java, which needs a conversion pool"
+                    + " of at least 2 connections, not " + poolSize);
+        }
+        // The reader takes one connection, the workers share the rest of the pool
+        return new SegmentTransformation(transformer(procedureName), dataSource,
+                ConversionRunLog.inCurrentRun(segmentTransformExecutor),
+                connectionPermits, Math.min(workers, poolSize - 1), batchRows, commitRows);
+    }
+
+    private SegmentTransformer transformer(String procedureName) {
+        for (SegmentTransformer transformer : transformers) {
+            if (transformer.procedureName().equalsIgnoreCase(procedureName)) return transformer;
+        }
+        throw new IllegalStateException("Segment " + procedureName
+                + " is configured to run in Java, but no SegmentTransformer replaces it");
+    }
+
+    private Set<String> javaSegmentNames() {
+        return Arrays.stream(javaSegments.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .map(name -> name.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toSet());
+    }
+}
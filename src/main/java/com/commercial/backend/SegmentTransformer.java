@@ -0,0 +1,47 @@
+package com.commercial.backend;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Maps the staging rows of one segment in Java, in place of the segment's stored procedure.
+ *
+ * <p>Implementations are Spring beans and are called from several worker threads at once, so
+ * {@link #transform} must not keep state between rows. The segment runs through its
+ * transformer when its procedure name is listed in {@code conversion.engine.java-segments}.</p>
+ */
+public interface SegmentTransformer {
+
+    /**
+     * Name of the procedure this transformer replaces.
+     */
+    String procedureName();
+
+    /**
+     * Query over the staging tables that yields one row per source record. It is read with a
+     * forward-only streaming cursor, so it should not need sorting.
+     */
+    String sourceQuery();
+
+    String targetTable();
+
+    List<String> targetColumns();
+
+    /**
+     * Maps one source row to any number of rows of {@link #targetColumns()}.
+     */
+    void transform(SourceRow row, RowWriter out) throws SQLException;
+
+    /**
+     * Values of a source row as strings, by position or column label.
+     */
+    interface SourceRow {
+        String get(int columnIndex);
+
+        String get(String columnLabel);
+    }
+
+    interface RowWriter {
+        void write(String... values) throws SQLException;
+    }
+}
@@ -0,0 +1,23 @@
+package com.commercial.backend;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the rows of a workbook, sheet by sheet in workbook order. Cell values are formatted
+ * the way Excel displays them and trimmed; cells missing before the last value of a row are
+ * empty strings.
+ */
+interface SheetRowHandler {
+
+    default void startSheet(String sheetName) throws IOException {
+    }
+
+    /**
+     * The list is reused for the next row, so copy whatever has to be kept.
+     */
+    void row(List<String> values) throws IOException;
+
+    default void endSheet() throws IOException {
+    }
+}
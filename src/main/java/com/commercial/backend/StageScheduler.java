@@ -0,0 +1,226 @@
+package com.commercial.backend;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * Runs named stages on an executor as soon as the stages they depend on have finished.
+ *
+ * <p>Stages are declared in an order where every dependency comes first, so the graph cannot
+ * have cycles. When a stage fails, no further stage is started, the running ones are asked to
+ * {@link Stage#cancel() cancel}, and {@link #run()} waits for them before it throws. Every
+ * stage is timed; stages that never started are reported as skipped, as are the stages
+ * {@link #completed(String) completed} by an earlier run.</p>
+ *
+ * <p>At most {@code maxRunning} stages are handed to the executor at a time; the other ready
+ * stages wait here. A stage counts as finished just before its thread is free again, so the
+ * executor needs room to queue up to {@code maxRunning} stages besides its threads.</p>
+ *
+ * <p>An instance runs once and is used by a single thread.</p>
+ */
+class StageScheduler {
+
+    private static final Logger logger = Logger.getLogger(StageScheduler.class.getName());
+
+    /**
+     * Work of one stage. {@link #cancel()} is called from another thread while {@link #run()}
+     * is in progress, and should make it return early, e.g. by cancelling its statement.
+     */
+    interface Stage {
+        void run() throws Exception;
+
+        default void cancel() {
+        }
+    }
+
+    enum Status {SUCCEEDED, FAILED, CANCELLED, SKIPPED}
+
+    record StageTiming(String name, Status status, long durationMillis) {
+    }
+
+    private final Executor executor;
+    private final int maxRunning;
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final BlockingQueue<Node> finished = new LinkedBlockingQueue<>();
+    private volatile boolean anyFailed;
+
+    StageScheduler(Executor executor) {
+        this(executor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxRunning how many stages to run at once, usually the executor's threads
+     */
+    StageScheduler(Executor executor, int maxRunning) {
+        if (maxRunning < 1) {
+            throw new IllegalArgumentException("maxRunning must be at least 1, not " + maxRunning);
+        }
+        this.executor = executor;
+        this.maxRunning = maxRunning;
+    }
+
+    StageScheduler stage(String name, Stage stage, String... dependsOn) {
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Stage " + name + " is declared twice");
+        }
+        List<Node> dependencies = new ArrayList<>();
+        for (String dependency : dependsOn) {
+            Node node = nodes.get(dependency);
+            if (node == null) {
+                throw new IllegalArgumentException("Stage " + name + " depends on " + dependency
+                        + ", which has to be declared before it");
+            }
+            dependencies.add(node);
+        }
+        nodes.put(name, new Node(name, stage, dependencies));
+        return this;
+    }
+
+    /**
+     * Declares a stage an earlier run already completed. It is not run again, counts as
+     * succeeded for the stages that depend on it and is reported as skipped.
+     */
+    StageScheduler completed(String name) {
+        stage(name, () -> { });
+        nodes.get(name).completedEarlier = true;
+        return this;
+    }
+
+    /**
+     * Runs all stages and returns their timings in declaration order.
+     *
+     * @throws ExecutionException with the exception of the first stage that failed, once the
+     *                            stages that were running at that point have stopped
+     */
+    List<StageTiming> run() throws ExecutionException, InterruptedException {
+        int running = 0;
+        int remaining = (int) nodes.values().stream().filter(node -> !node.completedEarlier).count();
+        Node failure = null;
+
+        try {
+            running += startReadyStages(running);
+            while (running > 0) {
+                Node node = finished.take();
+                running--;
+                remaining--;
+
+                if (node.error != null && failure == null) {
+                    failure = node;
+                    logger.warning("Stage " + node.name + " failed after " + node.durationMillis()
+                            + " ms, cancelling the running stages: " + node.error);
+                    cancelRunningStages();
+                } else if (node.error == null) {
+                    logger.info("Stage " + node.name + " finished in " + node.durationMillis() + " ms");
+                }
+                if (failure == null) {
+                    running += startReadyStages(running);
+                }
+            }
+        } catch (InterruptedException e) {
+            cancelRunningStages();
+            throw e;
+        }
+
+        if (failure != null) {
+            throw new ExecutionException("Stage " + failure.name + " failed: " + failure.error.getMessage(), failure.error);
+        }
+        if (remaining > 0) {
+            throw new IllegalStateException(remaining + " stages could not be started");
+        }
+        return timings();
+    }
+
+    /**
+     * Timings so far, also for reporting after {@link #run()} threw.
+     */
+    List<StageTiming> timings() {
+        List<StageTiming> timings = new ArrayList<>();
+        for (Node node : nodes.values()) {
+            timings.add(new StageTiming(node.name, node.status(), node.durationMillis()));
+        }
+        return timings;
+    }
+
+    private int startReadyStages(int running) {
+        int started = 0;
+        for (Node node : nodes.values()) {
+            // An executor that runs stages on the calling thread may have failed one already
+            if (anyFailed || running + started >= maxRunning) break;
+            if (!node.completedEarlier && node.startNanos == 0
+                    && node.dependencies.stream().allMatch(Node::succeeded)) {
+                node.startNanos = System.nanoTime();
+                started++;
+                executor.execute(node::execute);
+            }
+        }
+        return started;
+    }
+
+    private void cancelRunningStages() {
+        for (Node node : nodes.values()) {
+            if (node.startNanos != 0 && node.endNanos == 0) {
+                node.cancelled = true;
+                try {
+                    node.stage.cancel();
+                } catch (RuntimeException e) {
+                    logger.warning("Cannot cancel stage " + node.name + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private final class Node {
+
+        final String name;
+        final Stage stage;
+        final List<Node> dependencies;
+
+        // Written by the worker before it hands the node to the queue, read after taking it
+        volatile long startNanos;
+        volatile long endNanos;
+        volatile Throwable error;
+        volatile boolean cancelled;
+        boolean completedEarlier;
+
+        Node(String name, Stage stage, List<Node> dependencies) {
+            this.name = name;
+            this.stage = stage;
+            this.dependencies = dependencies;
+        }
+
+        void execute() {
+            try {
+                stage.run();
+            } catch (Throwable e) {
+                error = e;
+                anyFailed = true;
+            } finally {
+                endNanos = System.nanoTime();
+                finished.add(this);
+            }
+        }
+
+        boolean succeeded() {
+            return completedEarlier || endNanos != 0 && error == null;
+        }
+
+        Status status() {
+            if (startNanos == 0) return Status.SKIPPED;
+            if (error == null) return Status.SUCCEEDED;
+            return cancelled ? Status.CANCELLED : Status.FAILED;
+        }
+
+        long durationMillis() {
+            if (startNanos == 0) return 0;
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            return (end - startNanos) / 1_000_000;
+        }
+    }
+}
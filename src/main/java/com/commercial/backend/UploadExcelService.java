@@ -1,19 +1,40 @@
 package com.commercial.backend;
+import com.mysql.cj.jdbc.JdbcStatement;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
+import com.commercial.backend.UploadMetadataRepository.Checkpoint;
+import com.commercial.backend.UploadMetadataRepository.FileState;
 import javax.sql.DataSource;
-import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
 
 @AutoConfiguration
 @Service
@@ -29,117 +50,976 @@ public class UploadExcelService {
     private static final String COLUMN_DEFINITION = " VARCHAR(80),";
     private static final String UTF_8 = "UTF-8";
     private static final int BATCH_SIZE = 1000;
-    private static final String LINE_BREAK_REGEX = "\\r?\\n";
-    private static final String MULTIPLE_SPACES_REGEX = "\\s{2,}";
-    private static final String SINGLE_SPACE = " ";
+    private static final String BATCH_SIZE_PROPERTY = "upload.batch.size";
+    private static final String KEY_COLUMN_PROPERTY = "upload.incremental.key-column";
+    // Rows whose recorded hashes are looked up in one query during an incremental upload
+    private static final int ROW_HASH_LOOKUP_ROWS = 1000;
+    // Fingerprints a full load holds before writing them to upload_row_hash_new
+    private static final int ROW_HASH_FLUSH_ROWS = 10000;
+    private static final String HEADER_SEPARATOR = "\u001F";
+    private static final String INDEXES_PROPERTY = "upload.indexes";
+    private static final String STAGING_TABLE_SUFFIX = "__staging";
+    private static final String RETIRED_TABLE_SUFFIX = "__old";
     private static final String SUCCESS_MSG_PART1 = "Success!!! ";
     private static final String SUCCESS_MSG_PART2 = " records were securely stored in the database.";
+    private static final String FAILURE_MSG = "Some files could not be stored in the database:";
+    private static final String LINE_BREAK = "<br>";
+    private static final String LOAD_DATA_PREFIX = "LOAD DATA LOCAL INFILE 'upload.csv' INTO TABLE ";
+    private static final String LOAD_DATA_FORMAT = " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n'";
+    // ER_NOT_ALLOWED_COMMAND, ER_CLIENT_LOCAL_FILES_DISABLED and CR_LOAD_DATA_LOCAL_INFILE_REJECTED
+    private static final Set<Integer> LOCAL_INFILE_REFUSED_ERROR_CODES = Set.of(1148, 3948, 2068);
+    // Data too long, incorrect value, out of range and truncated value, and the data truncated
+    // warning LOAD DATA LOCAL raises for them, as it loads as if with IGNORE
+    private static final Set<Integer> SCHEMA_MISMATCH_ERROR_CODES = Set.of(1406, 1366, 1264, 1292, 1265);
+
+    private static final Logger logger = Logger.getLogger(UploadExcelService.class.getName());
 
     @Autowired
+    @Qualifier("ingestDataSource")
     private DataSource dataSource;
 
+    @Autowired
+    @Qualifier("uploadExecutor")
+    private ThreadPoolTaskExecutor uploadExecutor;
+
+    @Value("${upload.bulk-load.enabled:true}")
+    private boolean bulkLoadEnabled;
+
+    @Value("${upload.parallel.enabled:true}")
+    private boolean parallelEnabled;
+
+    @Value("${upload.batch.size:" + BATCH_SIZE + "}")
+    private int defaultBatchSize;
+
+    @Value("${upload.batch.max-bytes:4194304}")
+    private long batchMaxBytes;
+
+    @Value("${upload.batch.max-delay-ms:2000}")
+    private long batchMaxDelayMillis;
+
+    @Value("${upload.batch.rewrite-statements:true}")
+    private boolean rewriteBatchedStatements;
+
+    @Value("${upload.schema-inference.enabled:false}")
+    private boolean schemaInferenceEnabled;
+
+    @Value("${upload.schema-inference.sample-rows:1000}")
+    private int schemaInferenceSampleRows;
+
+    @Value("${upload.commit.interval-rows:50000}")
+    private long commitIntervalRows;
+
+    @Value("${upload.checkpoint.enabled:true}")
+    private boolean checkpointsEnabled;
+
+    @Value("${upload.incremental.enabled:false}")
+    private boolean incrementalEnabled;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private UploadMetadataRepository uploadMetadataRepository;
+
+    @Autowired
+    private BulkLoadSessionProfile sessionProfile;
+
+    @Autowired
+    private ExcelToCsvService excelToCsvService;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
     public String handleFileUpload(@RequestParam("files") MultipartFile[] files, Model model) {
         if (files == null || files.length == 0) {
             model.addAttribute("message", "Please select at least one CSV file to upload.");
             return "csv_to_db";
         }
 
-        int totalRecords = 0;
+        List<UploadSource> uploads = new ArrayList<>();
+        for (MultipartFile file : files) {
+            if (!file.isEmpty()) uploads.add(new UploadSource(file.getOriginalFilename(), file));
+        }
+
+        try {
+            List<FileLoadResult> results = loadUploads(uploads, new UploadJob(fileNames(uploads)));
+            model.addAttribute("fileResults", results);
+
+            String errorMessage = describeFailures(results);
+            if (errorMessage != null) {
+                model.addAttribute("errorMessage", errorMessage);
+                return errorMessage;
+            }
+
+            String successMessage = describeSuccess(results);
+            model.addAttribute("successMessage", successMessage);
+            return successMessage;
+
+        } catch (Exception e) {
+            model.addAttribute("errorMessage", e.getMessage());
+            e.printStackTrace();
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Loads the files of a background job on the calling thread and records the outcome on the job.
+     */
+    void runJob(UploadJob job, List<UploadSource> uploads) {
+        runJob(job, () -> loadUploads(uploads, job));
+    }
+
+    /**
+     * Loads the sheets of a workbook as a background job on the calling thread.
+     */
+    void runWorkbookJob(UploadJob job, Path workbookFile) {
+        runJob(job, () -> loadWorkbook(workbookFile, job));
+    }
+
+    private void runJob(UploadJob job, Callable<List<FileLoadResult>> load) {
+        job.started();
+        try {
+            List<FileLoadResult> results = load.call();
+            String errorMessage = describeFailures(results);
+            job.completed(results, errorMessage != null ? errorMessage : describeSuccess(results), errorMessage == null);
+        } catch (Exception e) {
+            logger.severe("Upload job " + job.getId() + " failed: " + e.getMessage());
+            job.failed(e.getMessage());
+        }
+    }
+
+    static List<String> fileNames(List<UploadSource> uploads) {
+        List<String> fileNames = new ArrayList<>();
+        for (UploadSource upload : uploads) {
+            fileNames.add(upload.fileName());
+        }
+        return fileNames;
+    }
+
+    private List<FileLoadResult> loadUploads(List<UploadSource> uploads, UploadJob job)
+            throws IOException, SQLException, InterruptedException {
+        List<FileLoadResult> results = parallelEnabled && uploads.size() > 1
+                ? loadFilesInParallel(uploads, job)
+                : loadFilesSequentially(uploads, job);
+        pipelineMetrics.recordUploads(results);
+        return results;
+    }
+
+    private String describeSuccess(List<FileLoadResult> results) {
+        long totalRecords = 0;
+        StringBuilder fileSummary = new StringBuilder();
+        for (FileLoadResult result : results) {
+            totalRecords += result.rowCount();
+            fileSummary.append(LINE_BREAK).append(result.tableName()).append(" : ")
+                    .append(result.unchanged() ? "unchanged" : result.rowCount());
+        }
+        return SUCCESS_MSG_PART1 + totalRecords + SUCCESS_MSG_PART2 + fileSummary;
+    }
+
+    /**
+     * Returns null when every file loaded.
+     */
+    private String describeFailures(List<FileLoadResult> results) {
+        StringBuilder failures = new StringBuilder();
+        for (FileLoadResult result : results) {
+            if (!result.isSuccessful()) {
+                failures.append(result.fileName()).append(" : ").append(result.errorMessage()).append(LINE_BREAK);
+            }
+        }
+        return failures.length() > 0 ? FAILURE_MSG + LINE_BREAK + failures : null;
+    }
+
+    /**
+     * Loads all files on one connection, committing after each file.
+     */
+    private List<FileLoadResult> loadFilesSequentially(List<UploadSource> uploads, UploadJob job)
+            throws IOException, SQLException {
+        List<FileLoadResult> results = new ArrayList<>();
 
         try (Connection connection = dataSource.getConnection()) {
-            connection.setAutoCommit(false);
+            BulkLoadSessionProfile.Session session = sessionProfile.apply(connection);
+            try {
+                connection.setAutoCommit(false);
+                try {
+                    for (UploadSource upload : uploads) {
+                        FileLoadResult result = loadFile(connection, upload, job);
+                        connection.commit();
+                        job.rowsCommitted(upload.fileName(), result.rowCount());
+                        results.add(result);
+                    }
+                } catch (IOException | SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    // The session profile is restored outside a transaction, sql_log_bin cannot change inside one
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                session.close();
+            }
+        }
+        return results;
+    }
 
-            for (MultipartFile file : files) {
-                if (file.isEmpty()) continue;
+    /**
+     * Loads every file on its own pooled connection and worker thread. Each file is
+     * committed on its own, so one failing file does not roll back the others.
+     */
+    private List<FileLoadResult> loadFilesInParallel(List<UploadSource> uploads, UploadJob job)
+            throws InterruptedException {
+        List<Future<FileLoadResult>> futures = new ArrayList<>();
+        for (UploadSource upload : uploads) {
+            futures.add(uploadExecutor.submit(() -> loadFileInOwnTransaction(upload, job)));
+        }
 
-                String[] csvColumns;
+        List<FileLoadResult> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                results.add(FileLoadResult.failed(uploads.get(i).fileName(), e.getCause()));
+            }
+        }
+        return results;
+    }
 
-                // Generate table name from CSV file name
-                String originalFileName = file.getOriginalFilename();
-                if (originalFileName == null || originalFileName.isEmpty()) {
-                    originalFileName = "table_" + System.currentTimeMillis();
+    private FileLoadResult loadFileInOwnTransaction(UploadSource upload, UploadJob job) {
+        try (Connection connection = dataSource.getConnection()) {
+            BulkLoadSessionProfile.Session session = sessionProfile.apply(connection);
+            try {
+                connection.setAutoCommit(false);
+                try {
+                    FileLoadResult result = loadFile(connection, upload, job);
+                    connection.commit();
+                    job.rowsCommitted(upload.fileName(), result.rowCount());
+                    return result;
+                } catch (Exception e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
                 }
-                String tableName = cleanColumnName(originalFileName.replace(".csv", ""),
-                        SPECIAL_CHARACTERS_REGEX, REPLACEMENT_CHAR, WHITESPACE_REGEX);
+            } finally {
+                session.close();
+            }
+        } catch (Exception e) {
+            logger.severe("Error loading " + upload.fileName() + ": " + e.getMessage());
+            return FileLoadResult.failed(upload.fileName(), e);
+        }
+    }
+
+    private FileLoadResult loadFile(Connection connection, UploadSource file, UploadJob job)
+            throws IOException, SQLException {
+        job.fileStarted(file.fileName());
+        try {
+            return loadFile(connection, file, file.fileName(), job);
+        } finally {
+            job.fileFinished(file.fileName());
+        }
+    }
+
+    private FileLoadResult loadFile(Connection connection, UploadSource file, String originalFileName, UploadJob job)
+            throws IOException, SQLException {
+        long startTime = System.currentTimeMillis();
+        String tableName = tableName(originalFileName);
 
-                try (BufferedReader bufferedReader = new BufferedReader(
-                        new InputStreamReader(file.getInputStream(), UTF_8))) {
+        if (!incrementalEnabled) {
+            uploadMetadataRepository.deleteFileState(connection, tableName);
+            return loadAllRows(connection, file, originalFileName, tableName,
+                    checkpointsEnabled ? sha256(file) : null, startTime, job);
+        }
 
-                    String currentLine;
+        String fileHash = sha256(file);
+        FileState fileState = uploadMetadataRepository.findFileState(connection, tableName);
+        if (fileState != null && uploadMetadataRepository.tableExists(connection, tableName)) {
+            if (fileState.fileHash().equals(fileHash)) {
+                logger.info(originalFileName + " is unchanged since the last upload, skipping " + tableName);
+                return new FileLoadResult(originalFileName, tableName, 0,
+                        System.currentTimeMillis() - startTime, null, true);
+            }
+            if (fileState.uniqueKeys()) {
+                FileLoadResult result;
+                BulkLoadSessionProfile.Session uniqueChecks = sessionProfile.requireUniqueChecks(connection);
+                try {
+                    result = loadChangedRows(connection, file, originalFileName, tableName,
+                            fileState, fileHash, startTime, job);
+                } finally {
+                    uniqueChecks.close();
+                }
+                if (result != null) return result;
+            }
+        }
+        return loadAllRows(connection, file, originalFileName, tableName, fileHash, startTime, job);
+    }
 
-                    // Read header line
-                    if ((currentLine = bufferedReader.readLine()) != null) {
-                        csvColumns = splitCSVLine(currentLine);
+    /**
+     * The table an uploaded CSV file is loaded into, named after the file.
+     */
+    private static String tableName(String fileName) {
+        return cleanColumnName(fileName.replace(".csv", ""), SPECIAL_CHARACTERS_REGEX, REPLACEMENT_CHAR, WHITESPACE_REGEX);
+    }
 
-                        // Create table dynamically
-                        createTable(connection, tableName, csvColumns);
+    /**
+     * Loads every sheet of an Excel workbook into its own table, named and typed exactly as if the
+     * sheet had been converted to CSV and that file uploaded. The cell values go from the workbook
+     * parser straight into batch inserts, so no CSV is written or parsed on the way. Each sheet is
+     * committed on its own; a failing sheet is rolled back and the next one still loads.
+     */
+    List<FileLoadResult> loadWorkbook(Path workbookFile, UploadJob job) throws IOException, SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            BulkLoadSessionProfile.Session session = sessionProfile.apply(connection);
+            try {
+                connection.setAutoCommit(false);
+                SheetLoader sheetLoader = new SheetLoader(connection, job);
+                try {
+                    excelToCsvService.readSheets(workbookFile, sheetLoader);
+                } catch (IOException | RuntimeException e) {
+                    sheetLoader.abort(e);
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+                pipelineMetrics.recordUploads(sheetLoader.getResults());
+                return sheetLoader.getResults();
+            } finally {
+                session.close();
+            }
+        }
+    }
 
-                        String insertQuery = buildInsertQuery(tableName, csvColumns);
+    /**
+     * Loads every row into a staging table, builds its indexes and swaps it in for the live table,
+     * so readers see either the previous or the new data and never a half-filled table. With
+     * incremental uploads on, the row hashes are recorded as well, so the next upload of the same
+     * table can be applied incrementally.
+     *
+     * <p>With checkpoints on, the load commits every {@code upload.commit.interval-rows} rows together
+     * with a checkpoint. A failed load keeps its staging table, and uploading the same file again
+     * continues after the last checkpoint instead of starting over.</p>
+     *
+     * <p>Inferred types only cover the sampled rows. When a later row does not fit them, the file
+     * is loaded again from the start with VARCHAR(80) columns, as without schema inference.</p>
+     */
+    private FileLoadResult loadAllRows(Connection connection, UploadSource file, String originalFileName,
+                                       String tableName, String fileHash, long startTime,
+                                       UploadJob job) throws IOException, SQLException {
+        String stagingTable = tableName + STAGING_TABLE_SUFFIX;
+        Checkpoint checkpoint = findResumableCheckpoint(connection, tableName, stagingTable, fileHash);
+        try {
+            try {
+                return loadAllRows(connection, file, originalFileName, tableName, stagingTable, fileHash,
+                        checkpoint, schemaInferenceEnabled, startTime, job);
+            } catch (IOException | SQLException e) {
+                if (!schemaInferenceEnabled || !isSchemaMismatch(e)) throw e;
+                logger.warning("A row of " + originalFileName + " does not fit the types inferred from the first "
+                        + schemaInferenceSampleRows + " rows, loading " + tableName + " with VARCHAR("
+                        + ColumnType.DEFAULT_VARCHAR_LENGTH + ") columns: " + e.getMessage());
+                connection.rollback();
+                dropTableQuietly(connection, stagingTable);
+                if (checkpointsEnabled) {
+                    uploadMetadataRepository.deleteCheckpoint(connection, tableName);
+                }
+                return loadAllRows(connection, file, originalFileName, tableName, stagingTable, fileHash,
+                        null, false, startTime, job);
+            }
+        } catch (IOException | SQLException | RuntimeException e) {
+            if (incrementalEnabled) {
+                dropNewRowHashesQuietly(connection);
+            }
+            if (checkpointsEnabled) {
+                logger.warning("Keeping " + stagingTable + " so that uploading " + originalFileName
+                        + " again resumes from its last checkpoint");
+            } else {
+                dropTableQuietly(connection, stagingTable);
+            }
+            throw e;
+        }
+    }
 
-                        try (PreparedStatement preparedStatement = connection.prepareStatement(insertQuery)) {
-                            int lineCount = 0;
+    private FileLoadResult loadAllRows(Connection connection, UploadSource file, String originalFileName,
+                                       String tableName, String stagingTable, String fileHash, Checkpoint checkpoint,
+                                       boolean inferTypes, long startTime, UploadJob job) throws IOException, SQLException {
+        if (bulkLoadEnabled) {
+            try (CsvTokenizer tokenizer = openTokenizer(file)) {
+                TableLayout layout = readLayout(tokenizer, inferTypes);
+                if (layout == null) {
+                    return new FileLoadResult(originalFileName, tableName, 0, 0, null, false);
+                }
+                prepareStagingTable(connection, tableName, stagingTable, layout, checkpoint);
 
-                            while ((currentLine = bufferedReader.readLine()) != null) {
-                                String[] fields = splitCSVLine(currentLine);
+                // Row hashes of a resumed load would miss the rows committed before the failure
+                RowFingerprints fingerprints = incrementalEnabled && checkpoint == null
+                        ? newFingerprints(connection, tableName, layout) : null;
+                CsvRows rows = resume(layout.rows(tokenizer, job), checkpoint);
+                long loadedRows = bulkLoad(connection, originalFileName, tableName, stagingTable, layout, rows,
+                        fingerprints, fileHash, job);
+                finishLoad(connection, tableName, stagingTable, layout, fingerprints, fileHash, loadedRows);
+                return new FileLoadResult(originalFileName, tableName, loadedRows,
+                        System.currentTimeMillis() - startTime, null, false);
+            } catch (SQLException e) {
+                if (!isLocalInfileRefused(e)) throw e;
+                logger.warning("LOAD DATA LOCAL INFILE refused for " + tableName
+                        + ", falling back to batch inserts: " + e.getMessage());
+            }
+        }
 
-                                for (int columnIndex = 0; columnIndex < Math.min(fields.length, csvColumns.length); columnIndex++) {
-                                    String sanitizedValue = sanitizeColumnValue(fields[columnIndex]);
-                                    preparedStatement.setString(columnIndex + 1, sanitizedValue);
-                                }
+        try (CsvTokenizer tokenizer = openTokenizer(file)) {
+            long rowCount = 0;
 
-                                preparedStatement.addBatch();
+            TableLayout layout = readLayout(tokenizer, inferTypes);
+            if (layout != null) {
+                prepareStagingTable(connection, tableName, stagingTable, layout, checkpoint);
 
-                                if(tableName.equals("Borrower_Segment")){
-                                    lineCount++;
-                                }
+                String[] csvColumns = layout.columns();
+                String insertQuery = buildInsertQuery(stagingTable, csvColumns);
+                RowFingerprints fingerprints = incrementalEnabled && checkpoint == null
+                        ? newFingerprints(connection, tableName, layout) : null;
+                CsvRows rows = resume(layout.rows(tokenizer, job), checkpoint);
 
+                try (BatchInserter batchInserter = openBatchInserter(connection, tableName, insertQuery,
+                        csvColumns.length)) {
+                    // The staging table is invisible to readers until the swap, so partial commits are safe
+                    batchInserter.setCommitInterval(commitIntervalRows,
+                            () -> saveCheckpoint(connection, tableName, fileHash, rows),
+                            committedRows -> job.rowsCommitted(originalFileName, rows.getRowNumber()));
 
-                                if (lineCount % BATCH_SIZE == 0) {
-                                    preparedStatement.executeBatch();
-                                }
+                    while (rows.next()) {
+                        addRow(batchInserter, layout, rows);
+                        if (fingerprints != null) {
+                            fingerprints.record(rows);
+                            if (fingerprints.pendingCount() >= ROW_HASH_FLUSH_ROWS) {
+                                uploadMetadataRepository.insertNewRowHashes(connection, fingerprints.drain());
                             }
-
-                            preparedStatement.executeBatch();
-                            totalRecords += lineCount;
                         }
                     }
+
+                    batchInserter.flush();
+                    rowCount = rows.getRowNumber();
+                } catch (IllegalArgumentException e) {
+                    throw new SQLException("Row " + rows.getRowNumber() + " of " + originalFileName
+                            + " does not match the inferred schema: " + e.getMessage(), e);
                 }
+                finishLoad(connection, tableName, stagingTable, layout, fingerprints, fileHash, rowCount);
             }
+            return new FileLoadResult(originalFileName, tableName, rowCount,
+                    System.currentTimeMillis() - startTime, null, false);
+        }
+    }
 
-            connection.commit();
-            connection.setAutoCommit(true);
+    /**
+     * A checkpoint is only resumed for the same file content and while its staging table still
+     * exists; any other checkpoint of the table is dropped.
+     */
+    private Checkpoint findResumableCheckpoint(Connection connection, String tableName, String stagingTable,
+                                               String fileHash) throws SQLException {
+        if (!checkpointsEnabled || fileHash == null) return null;
 
-            String successMessage = SUCCESS_MSG_PART1 + totalRecords + SUCCESS_MSG_PART2;
-            model.addAttribute("successMessage", successMessage);
-            return successMessage;
+        Checkpoint checkpoint = uploadMetadataRepository.findCheckpoint(connection, tableName);
+        if (checkpoint == null) return null;
+        if (checkpoint.fileHash().equals(fileHash) && uploadMetadataRepository.tableExists(connection, stagingTable)) {
+            logger.info("Resuming load of " + tableName + " after row " + checkpoint.rowsCommitted());
+            return checkpoint;
+        }
+        uploadMetadataRepository.deleteCheckpoint(connection, tableName);
+        return null;
+    }
 
-        } catch (Exception e) {
-            model.addAttribute("errorMessage", e.getMessage());
-            e.printStackTrace();
-            return e.getMessage();
+    private void prepareStagingTable(Connection connection, String tableName, String stagingTable,
+                                     TableLayout layout, Checkpoint checkpoint) throws SQLException {
+        if (checkpoint == null) {
+            createTable(connection, tableName, stagingTable, layout);
+        }
+    }
+
+    private static CsvRows resume(CsvRows rows, Checkpoint checkpoint) throws IOException {
+        if (checkpoint != null) {
+            rows.resumeAfter(checkpoint.rowsCommitted(), checkpoint.charOffset());
+        }
+        return rows;
+    }
+
+    private void saveCheckpoint(Connection connection, String tableName, String fileHash, CsvRows rows)
+            throws SQLException {
+        if (checkpointsEnabled && fileHash != null) {
+            uploadMetadataRepository.saveCheckpoint(connection, tableName,
+                    new Checkpoint(fileHash, rows.getRowNumber(), rows.getCharOffset()));
+        }
+    }
+
+    private void finishLoad(Connection connection, String tableName, String stagingTable, TableLayout layout,
+                            RowFingerprints fingerprints, String fileHash, long rowCount) throws SQLException {
+        if (checkpointsEnabled) {
+            uploadMetadataRepository.deleteCheckpoint(connection, tableName);
+        }
+        boolean uniqueKeys = false;
+        if (fingerprints != null) {
+            uploadMetadataRepository.insertNewRowHashes(connection, fingerprints.drain());
+            uniqueKeys = !fingerprints.hasMissingKeys()
+                    && uploadMetadataRepository.findDuplicateNewRowKey(connection) == null;
+        }
+        swapInStagingTable(connection, tableName, stagingTable, layout, uniqueKeys);
+        if (fingerprints != null) {
+            saveFileState(connection, tableName, layout, uniqueKeys, fileHash, rowCount);
+        } else if (incrementalEnabled) {
+            uploadMetadataRepository.deleteFileState(connection, tableName);
         }
     }
 
-    private String[] splitCSVLine(String csvLine) {
-        List<String> fields = new ArrayList<>();
-        StringBuilder currentField = new StringBuilder();
-        boolean insideQuotes = false;
+    /**
+     * Builds the configured indexes on the loaded staging table in one statement, adds the unique
+     * key index incremental uploads need, and then replaces the live table with a single
+     * RENAME TABLE, which MySQL applies atomically.
+     */
+    private void swapInStagingTable(Connection connection, String tableName, String stagingTable,
+                                    TableLayout layout, boolean uniqueKeys) throws SQLException {
+        List<String> columnNames = resolveColumnNames(layout.columns());
+        String indexDefinitions = buildIndexDefinitions(tableName, columnNames);
 
-        char[] characters = csvLine.toCharArray();
+        try (Statement statement = connection.createStatement()) {
+            if (!indexDefinitions.isEmpty()) {
+                long indexStart = System.currentTimeMillis();
+                statement.executeUpdate("ALTER TABLE " + stagingTable + " " + indexDefinitions);
+                logger.info("Built indexes on " + tableName + " in " + (System.currentTimeMillis() - indexStart) + " ms");
+            }
+            if (uniqueKeys) {
+                ensureUniqueKeyIndex(connection, stagingTable, columnNames.get(resolveKeyColumn(tableName, columnNames)));
+            }
 
-        for (char character : characters) {
-            if (character == '"') {
-                insideQuotes = !insideQuotes;
-            } else if (character == ',' && !insideQuotes) {
-                fields.add(currentField.toString());
-                currentField.setLength(0);
+            String retiredTable = tableName + RETIRED_TABLE_SUFFIX;
+            if (uploadMetadataRepository.tableExists(connection, tableName)) {
+                statement.executeUpdate("DROP TABLE IF EXISTS " + retiredTable);
+                statement.executeUpdate("RENAME TABLE " + tableName + " TO " + retiredTable + ", "
+                        + stagingTable + " TO " + tableName);
+                statement.executeUpdate("DROP TABLE " + retiredTable);
             } else {
-                currentField.append(character);
+                statement.executeUpdate("RENAME TABLE " + stagingTable + " TO " + tableName);
             }
         }
-        fields.add(currentField.toString());
+    }
 
-        return fields.toArray(new String[0]);
+    /**
+     * Index clauses from {@code upload.indexes.<table name>}: indexes separated by ';', the columns
+     * of a composite index by ','. Unknown columns are skipped with a warning.
+     */
+    private String buildIndexDefinitions(String tableName, List<String> columnNames) {
+        String indexSpec = environment.getProperty(INDEXES_PROPERTY + "." + tableName);
+        if (indexSpec == null || indexSpec.isBlank()) return "";
+
+        StringBuilder indexDefinitions = new StringBuilder();
+        for (String index : indexSpec.split(";")) {
+            List<String> indexColumns = new ArrayList<>();
+            for (String column : index.split(",")) {
+                String columnName = findColumn(columnNames, column.trim());
+                if (columnName != null) {
+                    indexColumns.add(columnName);
+                } else if (!column.isBlank()) {
+                    logger.warning("Index column " + column.trim() + " not found in " + tableName + ", skipping it");
+                }
+            }
+            if (indexColumns.isEmpty()) continue;
+
+            if (indexDefinitions.length() > 0) indexDefinitions.append(", ");
+            indexDefinitions.append("ADD INDEX ix_").append(String.join("_", indexColumns))
+                    .append(" (").append(String.join(", ", indexColumns)).append(")");
+        }
+        return indexDefinitions.toString();
+    }
+
+    private static String findColumn(List<String> columnNames, String name) {
+        for (String columnName : columnNames) {
+            if (columnName.equalsIgnoreCase(name)) return columnName;
+        }
+        return null;
+    }
+
+    private void dropTableQuietly(Connection connection, String tableName) {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE IF EXISTS " + tableName);
+        } catch (SQLException e) {
+            logger.warning("Could not drop " + tableName + ": " + e.getMessage());
+        }
+    }
+
+    private void dropNewRowHashesQuietly(Connection connection) {
+        try {
+            uploadMetadataRepository.dropNewRowHashes(connection);
+        } catch (SQLException e) {
+            logger.warning("Could not drop the row hashes of the failed upload: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a changed upload in place: rows whose key is new or whose content hash differs are
+     * upserted, rows whose key disappeared are deleted and unchanged rows are left alone.
+     *
+     * <p>Returns null when the upload cannot be applied incrementally (different header or
+     * column types, or duplicate keys); the caller then reloads the whole table.</p>
+     */
+    private FileLoadResult loadChangedRows(Connection connection, UploadSource file, String originalFileName,
+                                           String tableName, FileState fileState, String fileHash,
+                                           long startTime, UploadJob job) throws IOException, SQLException {
+        try (CsvTokenizer tokenizer = openTokenizer(file)) {
+            TableLayout layout = readLayout(tokenizer, schemaInferenceEnabled);
+            if (layout == null || !sha256(String.join(HEADER_SEPARATOR, layout.columns())).equals(fileState.headerHash())
+                    || !typeDefinitions(layout).equals(uploadMetadataRepository.findSchemaManifestTypes(connection, tableName))) {
+                return null;
+            }
+
+            List<String> columnNames = resolveColumnNames(layout.columns());
+            int keyColumn = resolveKeyColumn(tableName, columnNames);
+            String keyColumnName = columnNames.get(keyColumn);
+            if (!keyColumnName.equals(fileState.keyColumn()) || !fitsRowKey(layout.columnType(keyColumn))
+                    || !ensureUniqueKeyIndex(connection, tableName, keyColumnName)) {
+                return null;
+            }
+
+            uploadMetadataRepository.createNewRowHashes(connection);
+            try {
+                return applyChangedRows(connection, tokenizer, layout, originalFileName, tableName,
+                        keyColumn, keyColumnName, fileState, fileHash, startTime, job);
+            } finally {
+                uploadMetadataRepository.dropNewRowHashes(connection);
+            }
+        }
+    }
+
+    private FileLoadResult applyChangedRows(Connection connection, CsvTokenizer tokenizer, TableLayout layout,
+                                            String originalFileName, String tableName, int keyColumn,
+                                            String keyColumnName, FileState fileState, String fileHash,
+                                            long startTime, UploadJob job) throws IOException, SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        ColumnType keyType = layout.columnType(keyColumn);
+        RowFingerprints fingerprints = new RowFingerprints(keyColumn, keyType, layout.columns().length);
+        CsvRows rows = layout.rows(tokenizer, job);
+        List<String[]> pendingRows = new ArrayList<>(ROW_HASH_LOOKUP_ROWS);
+        long rowCount = 0;
+        long changedRows = 0;
+
+        try (BatchInserter upserter = openBatchInserter(connection, tableName,
+                buildUpsertQuery(tableName, layout.columns()), layout.columns().length)) {
+            while (rows.next()) {
+                rowCount++;
+                fingerprints.record(rows);
+                pendingRows.add(normalizedRow(layout, rows));
+                if (pendingRows.size() == ROW_HASH_LOOKUP_ROWS) {
+                    changedRows += upsertChangedRows(connection, tableName, upserter, fingerprints, pendingRows);
+                }
+            }
+            changedRows += upsertChangedRows(connection, tableName, upserter, fingerprints, pendingRows);
+            upserter.flush();
+        } catch (IllegalArgumentException e) {
+            throw new SQLException("Row " + rows.getRowNumber() + " of " + originalFileName
+                    + " does not match the inferred schema: " + e.getMessage(), e);
+        }
+
+        if (fingerprints.hasMissingKeys()) {
+            logger.warning("Rows without a key in " + originalFileName + ", reloading " + tableName);
+            connection.rollback(savepoint);
+            return null;
+        }
+        String duplicateKey = uploadMetadataRepository.findDuplicateNewRowKey(connection);
+        if (duplicateKey != null) {
+            logger.warning("Duplicate key " + duplicateKey + " in " + originalFileName + ", reloading " + tableName);
+            connection.rollback(savepoint);
+            return null;
+        }
+
+        int removedRows = uploadMetadataRepository.deleteRemovedRows(connection, tableName, keyColumnName, keyType);
+        uploadMetadataRepository.applyNewRowHashes(connection, tableName);
+
+        uploadMetadataRepository.saveFileState(connection, tableName, new FileState(fileHash,
+                fileState.headerHash(), keyColumnName, true, rowCount));
+        logger.info(String.format("Applied %s incrementally: %d of %d rows changed, %d removed",
+                originalFileName, changedRows, rowCount, removedRows));
+        return new FileLoadResult(originalFileName, tableName, changedRows,
+                System.currentTimeMillis() - startTime, null, false);
+    }
+
+    /**
+     * Looks up the recorded hashes of the pending rows in one query and upserts the rows that
+     * are new or changed.
+     *
+     * @return the number of upserted rows
+     */
+    private int upsertChangedRows(Connection connection, String tableName, BatchInserter upserter,
+                                  RowFingerprints fingerprints, List<String[]> pendingRows) throws SQLException {
+        List<RowFingerprints.Fingerprint> pendingFingerprints = fingerprints.drain();
+        List<String> keys = new ArrayList<>(pendingFingerprints.size());
+        for (RowFingerprints.Fingerprint fingerprint : pendingFingerprints) {
+            keys.add(fingerprint.key());
+        }
+        Map<String, Long> recordedHashes = uploadMetadataRepository.findRowHashes(connection, tableName, keys);
+
+        int changedRows = 0;
+        for (int i = 0; i < pendingFingerprints.size(); i++) {
+            RowFingerprints.Fingerprint fingerprint = pendingFingerprints.get(i);
+            Long recordedHash = recordedHashes.get(fingerprint.key());
+            if (recordedHash == null || recordedHash != fingerprint.hash()) {
+                String[] values = pendingRows.get(i);
+                for (int columnIndex = 0; columnIndex < values.length; columnIndex++) {
+                    upserter.setValue(columnIndex, values[columnIndex]);
+                }
+                upserter.addRow(values.length);
+                changedRows++;
+            }
+        }
+        uploadMetadataRepository.insertNewRowHashes(connection, pendingFingerprints);
+        pendingRows.clear();
+        return changedRows;
+    }
+
+    /**
+     * The normalized values of the current row, for binding after the row has moved on.
+     */
+    private static String[] normalizedRow(TableLayout layout, CsvRows rows) {
+        String[] values = new String[Math.min(rows.fieldCount(), layout.columns().length)];
+        for (int columnIndex = 0; columnIndex < values.length; columnIndex++) {
+            values[columnIndex] = layout.normalize(columnIndex, rows.field(columnIndex));
+        }
+        return values;
+    }
+
+    private void addRow(BatchInserter batchInserter, TableLayout layout, CsvRows rows) throws SQLException {
+        int fieldCount = Math.min(rows.fieldCount(), layout.columns().length);
+
+        for (int columnIndex = 0; columnIndex < fieldCount; columnIndex++) {
+            batchInserter.setValue(columnIndex, layout.normalize(columnIndex, rows.field(columnIndex)));
+        }
+        batchInserter.addRow(fieldCount);
+    }
+
+    /**
+     * Reads the header and, when schema inference is on, samples the first rows.
+     * Returns null for a file without a header line.
+     */
+    private TableLayout readLayout(CsvTokenizer tokenizer, boolean inferTypes) throws IOException {
+        if (!tokenizer.nextRecord()) return null;
+
+        String[] csvColumns = tokenizer.fields();
+        tokenizer.setSanitizing(true);
+
+        List<String[]> sampleRows = new ArrayList<>();
+        ColumnType[] columnTypes = null;
+        if (inferTypes) {
+            ColumnTypeInference inference = new ColumnTypeInference(csvColumns.length);
+            while (sampleRows.size() < schemaInferenceSampleRows && tokenizer.nextRecord()) {
+                String[] row = tokenizer.fields();
+                inference.observe(row);
+                sampleRows.add(row);
+            }
+            columnTypes = inference.inferTypes();
+        }
+        return new TableLayout(csvColumns, columnTypes, sampleRows);
+    }
+
+    private List<String> typeDefinitions(TableLayout layout) {
+        List<String> typeDefinitions = new ArrayList<>();
+        for (int i = 0; i < layout.columns().length; i++) {
+            typeDefinitions.add(layout.columnType(i).sqlDefinition());
+        }
+        return typeDefinitions;
+    }
+
+    /**
+     * Starts recording the row hashes of a full load. Returns null when the key column is too
+     * wide for the row hash tables; the table's next upload is then a full reload again.
+     */
+    private RowFingerprints newFingerprints(Connection connection, String tableName, TableLayout layout)
+            throws SQLException {
+        int keyColumn = resolveKeyColumn(tableName, resolveColumnNames(layout.columns()));
+        ColumnType keyType = layout.columnType(keyColumn);
+        if (!fitsRowKey(keyType)) {
+            logger.info("Key column of " + tableName + " is " + keyType.sqlDefinition()
+                    + ", too wide for incremental uploads");
+            return null;
+        }
+        uploadMetadataRepository.createNewRowHashes(connection);
+        return new RowFingerprints(keyColumn, keyType, layout.columns().length);
+    }
+
+    private static boolean fitsRowKey(ColumnType keyType) {
+        return keyType.getKind() != ColumnType.Kind.TEXT && (keyType.getKind() != ColumnType.Kind.VARCHAR
+                || keyType.getLength() <= UploadMetadataRepository.MAX_ROW_KEY_LENGTH);
+    }
+
+    /**
+     * The key column comes from {@code upload.incremental.key-column.<table name>} and defaults to the first column.
+     */
+    private int resolveKeyColumn(String tableName, List<String> columnNames) {
+        String keyColumnName = environment.getProperty(KEY_COLUMN_PROPERTY + "." + tableName);
+        if (keyColumnName != null) {
+            String columnName = findColumn(columnNames, keyColumnName);
+            if (columnName != null) return columnNames.indexOf(columnName);
+            logger.warning("Key column " + keyColumnName + " not found in " + tableName + ", using the first column");
+        }
+        return 0;
+    }
+
+    /**
+     * Records the file and row hashes after a full load. Tables with duplicate keys keep only
+     * the file hash, so a changed file is reloaded in full.
+     */
+    private void saveFileState(Connection connection, String tableName, TableLayout layout,
+                               boolean uniqueKeys, String fileHash, long rowCount) throws SQLException {
+        if (uniqueKeys) {
+            uploadMetadataRepository.applyNewRowHashes(connection, tableName);
+        } else {
+            uploadMetadataRepository.deleteRowHashes(connection, tableName);
+        }
+        uploadMetadataRepository.dropNewRowHashes(connection);
+
+        List<String> columnNames = resolveColumnNames(layout.columns());
+        String keyColumnName = columnNames.get(resolveKeyColumn(tableName, columnNames));
+        uploadMetadataRepository.saveFileState(connection, tableName, new FileState(fileHash,
+                sha256(String.join(HEADER_SEPARATOR, layout.columns())), keyColumnName, uniqueKeys, rowCount));
+    }
+
+    /**
+     * Adds a unique index on the key column unless one exists. Returns false when the
+     * existing rows have duplicate keys and the index cannot be built.
+     */
+    private boolean ensureUniqueKeyIndex(Connection connection, String tableName, String keyColumnName) throws SQLException {
+        String indexName = "ux_" + keyColumnName;
+        try (ResultSet indexes = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, tableName, true, false)) {
+            while (indexes.next()) {
+                if (indexName.equalsIgnoreCase(indexes.getString("INDEX_NAME"))) return true;
+            }
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("ALTER TABLE " + tableName + " ADD UNIQUE INDEX " + indexName
+                    + " (" + keyColumnName + ")");
+            return true;
+        } catch (SQLException e) {
+            logger.warning("Cannot add unique index on " + tableName + "." + keyColumnName + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private String sha256(UploadSource file) throws IOException {
+        MessageDigest digest = newSha256();
+        try (InputStream inputStream = file.getInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String sha256(String value) {
+        return HexFormat.of().formatHex(newSha256().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Batch size can be tuned per table with {@code upload.batch.size.<table name>}.
+     */
+    private BatchInserter openBatchInserter(Connection connection, String tableName, String insertQuery,
+                                            int columnCount) throws SQLException {
+        int batchSize = environment.getProperty(BATCH_SIZE_PROPERTY + "." + tableName, Integer.class, defaultBatchSize);
+        BatchInserter batchInserter = new BatchInserter(connection, tableName, insertQuery, columnCount,
+                batchSize, batchMaxBytes, batchMaxDelayMillis, rewriteBatchedStatements);
+        batchInserter.setFlushTimer(pipelineMetrics.flushTimer(tableName));
+        return batchInserter;
+    }
+
+    /**
+     * Opens the upload with sanitizing switched off so the header keeps its raw column names.
+     */
+    private CsvTokenizer openTokenizer(UploadSource file) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new InputStreamReader(file.getInputStream(), UTF_8));
+        tokenizer.setSanitizing(false);
+        return tokenizer;
+    }
+
+    /**
+     * Streams the remaining CSV rows into the staging table with LOAD DATA LOCAL INFILE, one
+     * statement per {@code upload.commit.interval-rows} rows, each committed with a checkpoint and
+     * reported to the job.
+     * The rows go through the same tokenizing and sanitizing as the batch path.
+     *
+     * <p>LOAD DATA LOCAL turns rejected values into warnings and loads them truncated or zeroed,
+     * so every value is checked against its column while streaming, and a statement that still
+     * raised a warning fails the load.</p>
+     *
+     * @return the number of data rows in the file, including rows loaded before a resume
+     */
+    private long bulkLoad(Connection connection, String originalFileName, String tableName, String stagingTable,
+                          TableLayout layout, CsvRows rows, RowFingerprints fingerprints, String fileHash,
+                          UploadJob job) throws SQLException {
+        String loadDataQuery = buildLoadDataQuery(stagingTable, layout.columns());
+        ColumnType[] columnTypes = new ColumnType[layout.columns().length];
+        for (int i = 0; i < columnTypes.length; i++) {
+            columnTypes[i] = layout.columnType(i);
+        }
+        try (Statement statement = connection.createStatement()) {
+            long loadedRows = 0;
+            int statements = 0;
+            LoadDataInputStream rowStream;
+            do {
+                rowStream = new LoadDataInputStream(rows, columnTypes.length, columnTypes,
+                        fingerprints, connection.getAutoCommit() ? 0 : commitIntervalRows);
+                // The driver drops the stream after each statement, so every chunk gets its own
+                statement.unwrap(JdbcStatement.class).setLocalInfileInputStream(rowStream);
+                loadedRows += statement.executeUpdate(loadDataQuery);
+                statements++;
+                // The driver reads the warnings of the last statement on the connection; calling
+                // clearWarnings() would stop it from reading them for this statement for good
+                SQLWarning warning = statement.getWarnings();
+                if (warning != null) {
+                    throw new SQLException("LOAD DATA into " + stagingTable + " changed a value before row "
+                            + rows.getRowNumber() + ": " + warning.getMessage(),
+                            warning.getSQLState(), warning.getErrorCode());
+                }
+                if (fingerprints != null) {
+                    // Not while the statement reads the stream, the connection is busy with it until then
+                    uploadMetadataRepository.insertNewRowHashes(connection, fingerprints.drain());
+                }
+
+                if (!rowStream.isSourceExhausted()) {
+                    saveCheckpoint(connection, tableName, fileHash, rows);
+                    connection.commit();
+                    job.rowsCommitted(originalFileName, rows.getRowNumber());
+                }
+            } while (!rowStream.isSourceExhausted());
+
+            logger.info("Bulk loaded " + loadedRows + " rows into " + stagingTable + " in " + statements + " statements");
+            return rows.getRowNumber();
+        }
+    }
+
+    /**
+     * A value that does not fit the inferred column type, rejected either while normalizing it or
+     * by the server.
+     */
+    private static boolean isSchemaMismatch(Exception e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IllegalArgumentException) return true;
+            if (cause instanceof SQLException sqlException
+                    && SCHEMA_MISMATCH_ERROR_CODES.contains(sqlException.getErrorCode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isLocalInfileRefused(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException
+                    && LOCAL_INFILE_REFUSED_ERROR_CODES.contains(sqlException.getErrorCode())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private static String cleanColumnName(String columnName, String specialCharactersRegex,
@@ -148,24 +1028,34 @@ public class UploadExcelService {
                 .replaceAll(whitespaceRegex, replacementChar);
     }
 
-    private void createTable(Connection connection, String tableName, String[] recordsColumns) throws SQLException {
+    /**
+     * Creates the staging table for a layout and records the schema manifest of the live table.
+     */
+    private void createTable(Connection connection, String tableName, String stagingTable,
+                             TableLayout layout) throws SQLException {
+        createTable(connection, stagingTable, layout.columns(), layout.columnTypes());
+        uploadMetadataRepository.saveSchemaManifest(connection, tableName, resolveColumnNames(layout.columns()),
+                typeDefinitions(layout), layout.sampleRows().size());
+    }
+
+    /**
+     * Creates the table with every column as VARCHAR(80), or with the inferred types when given.
+     */
+    private void createTable(Connection connection, String tableName, String[] recordsColumns,
+                             ColumnType[] columnTypes) throws SQLException {
         try (Statement statement = connection.createStatement()) {
             statement.executeUpdate("DROP TABLE IF EXISTS " + tableName);
 
             StringBuilder createTableQuery = new StringBuilder("CREATE TABLE " + tableName + " (");
 
-            int colIndex = 1;
-            for (String column : recordsColumns) {
-                String cleaned = cleanColumnName(column, SPECIAL_CHARACTERS_REGEX,
-                        REPLACEMENT_CHAR, WHITESPACE_REGEX);
-
-                // Fix: assign default name if column becomes empty
-                if (cleaned == null || cleaned.trim().isEmpty() || cleaned.equals("_")) {
-                    cleaned = "Column_" + colIndex;
+            List<String> columnNames = resolveColumnNames(recordsColumns);
+            for (int i = 0; i < columnNames.size(); i++) {
+                createTableQuery.append(columnNames.get(i));
+                if (columnTypes != null) {
+                    createTableQuery.append(' ').append(columnTypes[i].sqlDefinition()).append(',');
+                } else {
+                    createTableQuery.append(COLUMN_DEFINITION);
                 }
-
-                createTableQuery.append(cleaned).append(COLUMN_DEFINITION);
-                colIndex++;
             }
 
             createTableQuery.setLength(createTableQuery.length() - 1); // Remove last comma
@@ -178,6 +1068,54 @@ public class UploadExcelService {
         StringBuilder insertQuery = new StringBuilder("INSERT INTO ");
         insertQuery.append(tableName).append(" (");
 
+        List<String> fixedColumns = resolveColumnNames(recordsColumns);
+
+        // Append validated column names
+        for (String col : fixedColumns) {
+            insertQuery.append(col).append(",");
+        }
+        insertQuery.setLength(insertQuery.length() - 1);
+        insertQuery.append(") VALUES (");
+
+        // Add placeholders
+        for (int i = 0; i < fixedColumns.size(); i++) {
+            insertQuery.append("?,");
+        }
+        insertQuery.setLength(insertQuery.length() - 1);
+        insertQuery.append(")");
+
+        return insertQuery.toString();
+    }
+
+    /**
+     * Insert that overwrites every column of an existing row with the same key.
+     */
+    private String buildUpsertQuery(String tableName, String[] recordsColumns) {
+        StringBuilder upsertQuery = new StringBuilder(buildInsertQuery(tableName, recordsColumns));
+        upsertQuery.append(" ON DUPLICATE KEY UPDATE ");
+
+        for (String col : resolveColumnNames(recordsColumns)) {
+            upsertQuery.append(col).append(" = VALUES(").append(col).append("),");
+        }
+        upsertQuery.setLength(upsertQuery.length() - 1);
+
+        return upsertQuery.toString();
+    }
+
+    private String buildLoadDataQuery(String tableName, String[] recordsColumns) {
+        StringBuilder loadQuery = new StringBuilder(LOAD_DATA_PREFIX);
+        loadQuery.append(tableName).append(LOAD_DATA_FORMAT).append(" (");
+
+        for (String col : resolveColumnNames(recordsColumns)) {
+            loadQuery.append(col).append(",");
+        }
+        loadQuery.setLength(loadQuery.length() - 1);
+        loadQuery.append(")");
+
+        return loadQuery.toString();
+    }
+
+    private List<String> resolveColumnNames(String[] recordsColumns) {
         int colIndex = 1;
         List<String> fixedColumns = new ArrayList<>();
 
@@ -193,28 +1131,221 @@ public class UploadExcelService {
             fixedColumns.add(cleaned);
             colIndex++;
         }
+        return fixedColumns;
+    }
 
-        // Append validated column names
-        for (String col : fixedColumns) {
-            insertQuery.append(col).append(",");
+    /**
+     * Loads the sheets of a workbook one after the other. The first row that holds a value is the
+     * header; the following rows are sanitized like CSV fields and padded with empty values to the
+     * header width, which is what the CSV of the sheet would contain. Values to the right of the
+     * header have no column and are dropped.
+     *
+     * <p>The staging table is only created once the header is known and, with schema inference
+     * on, the sampled rows are typed. Loading then goes through the same staging table swap as a
+     * CSV upload, without checkpoints since a workbook has no CSV offset to resume from.</p>
+     */
+    private final class SheetLoader implements SheetRowHandler {
+
+        private final Connection connection;
+        private final UploadJob job;
+        private final List<FileLoadResult> results = new ArrayList<>();
+
+        private String sheetName;
+        private String tableName;
+        private String stagingTable;
+        private long startTime;
+        private String[] columns;
+        private ColumnTypeInference inference;
+        private final List<String[]> sampleRows = new ArrayList<>();
+        private TableLayout layout;
+        private BatchInserter batchInserter;
+        private long rowCount;
+        private long droppedValues;
+        private Exception failure;
+
+        SheetLoader(Connection connection, UploadJob job) {
+            this.connection = connection;
+            this.job = job;
         }
-        insertQuery.setLength(insertQuery.length() - 1);
-        insertQuery.append(") VALUES (");
 
-        // Add placeholders
-        for (int i = 0; i < fixedColumns.size(); i++) {
-            insertQuery.append("?,");
+        List<FileLoadResult> getResults() {
+            return results;
         }
-        insertQuery.setLength(insertQuery.length() - 1);
-        insertQuery.append(")");
 
-        return insertQuery.toString();
+        @Override
+        public void startSheet(String sheetName) {
+            this.sheetName = sheetName;
+            tableName = tableName(ExcelToCsvService.csvFileName(sheetName));
+            stagingTable = tableName + STAGING_TABLE_SUFFIX;
+            startTime = System.currentTimeMillis();
+            columns = null;
+            inference = null;
+            sampleRows.clear();
+            layout = null;
+            rowCount = 0;
+            droppedValues = 0;
+            failure = null;
+            job.fileStarted(sheetName);
+        }
+
+        @Override
+        public void row(List<String> values) {
+            if (failure != null) return;
+            try {
+                if (columns == null) {
+                    readHeader(values);
+                    return;
+                }
+
+                String[] row = new String[columns.length];
+                for (int i = 0; i < values.size(); i++) {
+                    if (i < row.length) {
+                        row[i] = CsvTokenizer.sanitize(values.get(i));
+                    } else if (!values.get(i).isEmpty()) {
+                        droppedValues++;
+                    }
+                }
+                for (int i = values.size(); i < row.length; i++) {
+                    row[i] = "";
+                }
+                job.rowParsed();
+
+                if (layout != null) {
+                    insert(row);
+                } else {
+                    inference.observe(row);
+                    sampleRows.add(row);
+                    if (sampleRows.size() >= schemaInferenceSampleRows) startLoad();
+                }
+            } catch (SQLException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void endSheet() {
+            try {
+                // A sheet without any value has no CSV and no table
+                if (failure == null && columns != null) {
+                    if (layout == null) startLoad();
+                    batchInserter.flush();
+                    finishLoad(connection, tableName, stagingTable, layout, null, null, rowCount);
+                    connection.commit();
+                    job.rowsCommitted(sheetName, rowCount);
+
+                    if (droppedValues > 0) {
+                        logger.warning("Dropped " + droppedValues + " values right of the header in sheet " + sheetName);
+                    }
+                    results.add(new FileLoadResult(sheetName, tableName, rowCount,
+                            System.currentTimeMillis() - startTime, null, false));
+                }
+            } catch (SQLException e) {
+                fail(e);
+            } finally {
+                closeBatchInserter();
+                if (failure != null) {
+                    results.add(FileLoadResult.failed(sheetName, failure));
+                }
+                job.fileFinished(sheetName);
+            }
+        }
+
+        /**
+         * Undoes the sheet being loaded when reading the workbook fails.
+         */
+        void abort(Exception e) {
+            if (sheetName != null && failure == null) {
+                fail(e);
+                closeBatchInserter();
+                job.fileFinished(sheetName);
+            }
+        }
+
+        private void readHeader(List<String> values) throws SQLException {
+            int width = values.size();
+            while (width > 0 && values.get(width - 1).isEmpty()) {
+                width--;
+            }
+            // Leading rows without a value are blank lines in the CSV
+            if (width == 0) return;
+
+            columns = values.subList(0, width).toArray(new String[0]);
+            if (schemaInferenceEnabled) {
+                inference = new ColumnTypeInference(columns.length);
+            } else {
+                startLoad();
+            }
+        }
+
+        private void startLoad() throws SQLException {
+            layout = new TableLayout(columns, inference != null ? inference.inferTypes() : null, List.copyOf(sampleRows));
+            createTable(connection, tableName, stagingTable, layout);
+            batchInserter = openBatchInserter(connection, tableName, buildInsertQuery(stagingTable, columns),
+                    columns.length);
+            // The staging table is invisible to readers until the swap, so partial commits are safe
+            batchInserter.setCommitInterval(commitIntervalRows, null,
+                    committedRows -> job.rowsCommitted(sheetName, committedRows));
+
+            for (String[] sampleRow : layout.sampleRows()) {
+                insert(sampleRow);
+            }
+            sampleRows.clear();
+        }
+
+        private void insert(String[] row) throws SQLException {
+            try {
+                for (int columnIndex = 0; columnIndex < row.length; columnIndex++) {
+                    batchInserter.setValue(columnIndex, layout.normalize(columnIndex, row[columnIndex]));
+                }
+            } catch (IllegalArgumentException e) {
+                throw new SQLException("Row " + (rowCount + 1) + " of sheet " + sheetName
+                        + " does not match the inferred schema: " + e.getMessage(), e);
+            }
+            batchInserter.addRow(row.length);
+            rowCount++;
+        }
+
+        private void fail(Exception e) {
+            failure = e;
+            logger.severe("Error loading sheet " + sheetName + ": " + e.getMessage());
+            closeBatchInserter();
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackFailure) {
+                logger.warning("Rollback of sheet " + sheetName + " failed: " + rollbackFailure.getMessage());
+            }
+            dropTableQuietly(connection, stagingTable);
+        }
+
+        private void closeBatchInserter() {
+            if (batchInserter == null) return;
+            try {
+                batchInserter.close();
+            } catch (SQLException e) {
+                logger.warning("Could not close the inserts of sheet " + sheetName + ": " + e.getMessage());
+            }
+            batchInserter = null;
+        }
     }
 
+    /**
+     * Header, column types (null when inference is off) and the rows read while sampling.
+     */
+    private record TableLayout(String[] columns, ColumnType[] columnTypes, List<String[]> sampleRows) {
 
-    private String sanitizeColumnValue(String value) {
-        if (value == null) return null;
-        return value.trim().replaceAll(LINE_BREAK_REGEX, "")
-                .replaceAll(MULTIPLE_SPACES_REGEX, SINGLE_SPACE);
+        /**
+         * The inferred type of the column, or VARCHAR(80) when inference is off.
+         */
+        ColumnType columnType(int columnIndex) {
+            return columnTypes != null ? columnTypes[columnIndex] : ColumnType.varchar(ColumnType.DEFAULT_VARCHAR_LENGTH);
+        }
+
+        String normalize(int columnIndex, String value) {
+            return columnTypes == null ? value : columnTypes[columnIndex].normalize(value);
+        }
+
+        CsvRows rows(CsvTokenizer tokenizer, UploadJob job) {
+            return new CsvRows(sampleRows, tokenizer, job);
+        }
     }
-}
\ No newline at end of file
+}
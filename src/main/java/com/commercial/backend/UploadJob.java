@@ -0,0 +1,141 @@
+package com.commercial.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Progress of one upload of CSV files or a workbook. Loader threads update the counters while the job runs and the
+ * status endpoint reads them at any time, so every field is safe to read concurrently.
+ */
+public class UploadJob {
+
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final List<String> fileNames;
+    private final long submittedAt = System.currentTimeMillis();
+    private final LongAdder rowsParsed = new LongAdder();
+    private final Map<String, Long> rowsCommitted = new ConcurrentHashMap<>();
+    private final Set<String> currentFiles = ConcurrentHashMap.newKeySet();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile List<FileLoadResult> results = List.of();
+    private volatile String message;
+
+    UploadJob(List<String> fileNames) {
+        this.fileNames = List.copyOf(fileNames);
+    }
+
+    void started() {
+        startedAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    void fileStarted(String fileName) {
+        currentFiles.add(fileName);
+    }
+
+    void fileFinished(String fileName) {
+        currentFiles.remove(fileName);
+    }
+
+    void rowParsed() {
+        rowsParsed.increment();
+    }
+
+    /**
+     * The rows of a file committed so far. Loads commit in intervals and may start a file over,
+     * so every call replaces the count of the file instead of adding to it.
+     */
+    void rowsCommitted(String fileName, long rows) {
+        rowsCommitted.put(fileName, rows);
+    }
+
+    void completed(List<FileLoadResult> results, String message, boolean successful) {
+        this.results = List.copyOf(results);
+        this.message = message;
+        finish(successful ? Status.COMPLETED : Status.FAILED);
+    }
+
+    void failed(String message) {
+        this.message = message;
+        finish(Status.FAILED);
+    }
+
+    private void finish(Status finalStatus) {
+        currentFiles.clear();
+        finishedAt = System.currentTimeMillis();
+        status = finalStatus;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public List<String> getFileNames() {
+        return fileNames;
+    }
+
+    public List<String> getCurrentFiles() {
+        List<String> files = new ArrayList<>(currentFiles);
+        Collections.sort(files);
+        return files;
+    }
+
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+
+    public long getRowsCommitted() {
+        return rowsCommitted.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public long getElapsedMillis() {
+        if (startedAt == 0) return 0;
+        return (finishedAt != 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+    }
+
+    /**
+     * Rows parsed per second since the job started.
+     */
+    public long getRowsPerSecond() {
+        long elapsedMillis = getElapsedMillis();
+        return elapsedMillis == 0 ? 0 : getRowsParsed() * 1000 / elapsedMillis;
+    }
+
+    public List<FileLoadResult> getResults() {
+        return results;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+}
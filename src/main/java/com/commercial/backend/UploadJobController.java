@@ -0,0 +1,55 @@
+package com.commercial.backend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+
+/**
+ * Endpoints of the background upload jobs of {@link UploadJobService}. A submitted job is
+ * answered with 202 and its id, an upload without content with 400 and a full job queue with 503.
+ */
+@RestController
+@RequestMapping("/api")
+public class UploadJobController {
+
+    @Autowired
+    private UploadJobService uploadJobService;
+
+    @PostMapping("/upload-jobs")
+    public ResponseEntity<UploadJob> submitUpload(@RequestParam("files") MultipartFile[] files) throws IOException {
+        try {
+            return accepted(uploadJobService.submitUpload(files));
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    @PostMapping("/upload-jobs/workbook")
+    public ResponseEntity<UploadJob> submitWorkbookUpload(@RequestParam("file") MultipartFile file) throws IOException {
+        try {
+            return accepted(uploadJobService.submitWorkbookUpload(file));
+        } catch (TaskRejectedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    @GetMapping("/upload-jobs/{jobId}")
+    public ResponseEntity<UploadJob> getUploadJob(@PathVariable("jobId") String jobId) {
+        UploadJob job = uploadJobService.getUploadJob(jobId);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
+    }
+
+    private static ResponseEntity<UploadJob> accepted(UploadJob job) {
+        return job != null ? ResponseEntity.status(HttpStatus.ACCEPTED).body(job) : ResponseEntity.badRequest().build();
+    }
+}
@@ -0,0 +1,148 @@
+package com.commercial.backend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs CSV and workbook uploads as background jobs. The request only copies the files to a spool directory
+ * and returns the job id; loading happens on the upload job executor and its progress can be
+ * polled until the job finishes. {@link UploadJobController} exposes the jobs over HTTP.
+ */
+@AutoConfiguration
+@Service
+public class UploadJobService {
+
+    private static final Logger logger = Logger.getLogger(UploadJobService.class.getName());
+
+    @Autowired
+    private UploadExcelService uploadExcelService;
+
+    @Autowired
+    @Qualifier("uploadJobExecutor")
+    private ThreadPoolTaskExecutor uploadJobExecutor;
+
+    @Value("${upload.jobs.spool-dir:${java.io.tmpdir}}")
+    private String spoolDir;
+
+    @Value("${upload.jobs.retention-minutes:60}")
+    private long retentionMinutes;
+
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Starts a job loading the CSV files.
+     *
+     * @return the job, or null when no file has content
+     * @throws TaskRejectedException when the upload job queue is full
+     */
+    public UploadJob submitUpload(MultipartFile[] files) throws IOException {
+        evictFinishedJobs();
+
+        Path jobDir = Files.createDirectories(Paths.get(spoolDir)).resolve("upload-job-" + System.nanoTime());
+        List<UploadSource> uploads = new ArrayList<>();
+        try {
+            Files.createDirectory(jobDir);
+            for (MultipartFile file : files == null ? new MultipartFile[0] : files) {
+                if (file.isEmpty()) continue;
+                // Multipart temp files are deleted when the request ends, so keep a copy for the job
+                Path spooled = jobDir.resolve(uploads.size() + ".csv");
+                file.transferTo(spooled);
+                uploads.add(new UploadSource(file.getOriginalFilename(), new FileSystemResource(spooled)));
+            }
+        } catch (IOException e) {
+            FileSystemUtils.deleteRecursively(jobDir);
+            throw e;
+        }
+        if (uploads.isEmpty()) {
+            FileSystemUtils.deleteRecursively(jobDir);
+            return null;
+        }
+
+        UploadJob job = new UploadJob(UploadExcelService.fileNames(uploads));
+        return submit(job, jobDir, () -> uploadExcelService.runJob(job, uploads));
+    }
+
+    /**
+     * Loads every sheet of an Excel workbook into its own table, without converting it to CSV
+     * first. The job lists the sheets as they load.
+     *
+     * @return the job, or null for an empty file
+     * @throws TaskRejectedException when the upload job queue is full
+     */
+    public UploadJob submitWorkbookUpload(MultipartFile file) throws IOException {
+        evictFinishedJobs();
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+
+        Path jobDir = Files.createDirectories(Paths.get(spoolDir)).resolve("upload-job-" + System.nanoTime());
+        Path workbookFile = jobDir.resolve("workbook");
+        try {
+            Files.createDirectory(jobDir);
+            file.transferTo(workbookFile);
+        } catch (IOException e) {
+            FileSystemUtils.deleteRecursively(jobDir);
+            throw e;
+        }
+
+        UploadJob job = new UploadJob(List.of(file.getOriginalFilename() != null ? file.getOriginalFilename() : "workbook"));
+        return submit(job, jobDir, () -> uploadExcelService.runWorkbookJob(job, workbookFile));
+    }
+
+    /**
+     * The job with the id, or null once it is unknown or evicted.
+     */
+    public UploadJob getUploadJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    private UploadJob submit(UploadJob job, Path jobDir, Runnable load) throws IOException {
+        try {
+            uploadJobExecutor.execute(() -> runJob(job, jobDir, load));
+        } catch (TaskRejectedException e) {
+            logger.warning("Upload job queue is full, rejecting upload of " + job.getFileNames());
+            FileSystemUtils.deleteRecursively(jobDir);
+            throw e;
+        }
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    private void runJob(UploadJob job, Path jobDir, Runnable load) {
+        try {
+            load.run();
+            logger.info(String.format("Upload job %s %s: %d rows in %d ms", job.getId(),
+                    job.getStatus(), job.getRowsCommitted(), job.getElapsedMillis()));
+        } finally {
+            try {
+                FileSystemUtils.deleteRecursively(jobDir);
+            } catch (IOException e) {
+                logger.warning("Could not delete spooled upload " + jobDir + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void evictFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt() < cutoff);
+    }
+}
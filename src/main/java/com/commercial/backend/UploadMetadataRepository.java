@@ -0,0 +1,379 @@
+package com.commercial.backend;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bookkeeping tables that the CSV upload keeps next to the uploaded data.
+ */
+@Repository
+public class UploadMetadataRepository {
+
+    private static final String CREATE_SCHEMA_MANIFEST_TABLE = "CREATE TABLE IF NOT EXISTS upload_schema_manifest ("
+            + "table_name VARCHAR(128) NOT NULL, "
+            + "ordinal_position INT NOT NULL, "
+            + "column_name VARCHAR(128) NOT NULL, "
+            + "column_type VARCHAR(64) NOT NULL, "
+            + "sampled_rows INT NOT NULL, "
+            + "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, "
+            + "PRIMARY KEY (table_name, ordinal_position))";
+    // Keys of wider columns would not fit the row hash tables; such tables are always reloaded in full
+    static final int MAX_ROW_KEY_LENGTH = 255;
+    private static final String CREATE_FILE_STATE_TABLE = "CREATE TABLE IF NOT EXISTS upload_file_state ("
+            + "table_name VARCHAR(128) NOT NULL PRIMARY KEY, "
+            + "file_hash CHAR(64) NOT NULL, "
+            + "header_hash CHAR(64) NOT NULL, "
+            + "key_column VARCHAR(128) NOT NULL, "
+            + "unique_keys BOOLEAN NOT NULL, "
+            + "row_count BIGINT NOT NULL, "
+            + "loaded_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP)";
+    private static final String CREATE_ROW_HASH_TABLE = "CREATE TABLE IF NOT EXISTS upload_row_hash ("
+            + "table_name VARCHAR(128) NOT NULL, "
+            + "row_key VARCHAR(" + MAX_ROW_KEY_LENGTH + ") NOT NULL, "
+            + "row_hash BIGINT NOT NULL, "
+            + "PRIMARY KEY (table_name, row_key))";
+    private static final String CREATE_CHECKPOINT_TABLE = "CREATE TABLE IF NOT EXISTS upload_checkpoint ("
+            + "table_name VARCHAR(128) NOT NULL PRIMARY KEY, "
+            + "file_hash CHAR(64) NOT NULL, "
+            + "rows_committed BIGINT NOT NULL, "
+            + "char_offset BIGINT NOT NULL, "
+            + "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP)";
+    private static final String DELETE_SCHEMA_MANIFEST = "DELETE FROM upload_schema_manifest WHERE table_name = ?";
+    private static final String INSERT_SCHEMA_MANIFEST = "INSERT INTO upload_schema_manifest "
+            + "(table_name, ordinal_position, column_name, column_type, sampled_rows) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_SCHEMA_MANIFEST_TYPES = "SELECT column_type FROM upload_schema_manifest "
+            + "WHERE table_name = ? ORDER BY ordinal_position";
+    private static final String SELECT_FILE_STATE = "SELECT file_hash, header_hash, key_column, unique_keys, row_count "
+            + "FROM upload_file_state WHERE table_name = ?";
+    private static final String UPSERT_FILE_STATE = "INSERT INTO upload_file_state "
+            + "(table_name, file_hash, header_hash, key_column, unique_keys, row_count) VALUES (?, ?, ?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE file_hash = VALUES(file_hash), header_hash = VALUES(header_hash), "
+            + "key_column = VALUES(key_column), unique_keys = VALUES(unique_keys), row_count = VALUES(row_count)";
+    private static final String DELETE_FILE_STATE = "DELETE FROM upload_file_state WHERE table_name = ?";
+    private static final String SELECT_ROW_HASHES = "SELECT row_key, row_hash FROM upload_row_hash "
+            + "WHERE table_name = ? AND row_key IN (%s)";
+    private static final String DELETE_ROW_HASHES = "DELETE FROM upload_row_hash WHERE table_name = ?";
+    // The fingerprints of the upload in progress; temporary tables belong to the connection and
+    // neither creating nor dropping them commits the load's transaction
+    private static final String DROP_NEW_ROW_HASH_TABLE = "DROP TEMPORARY TABLE IF EXISTS upload_row_hash_new";
+    private static final String CREATE_NEW_ROW_HASH_TABLE = "CREATE TEMPORARY TABLE upload_row_hash_new ("
+            + "row_key VARCHAR(" + MAX_ROW_KEY_LENGTH + ") NOT NULL, "
+            + "row_hash BIGINT NOT NULL, "
+            + "INDEX (row_key))";
+    private static final String INSERT_NEW_ROW_HASH = "INSERT INTO upload_row_hash_new (row_key, row_hash) VALUES (?, ?)";
+    private static final String SELECT_DUPLICATE_NEW_ROW_KEY = "SELECT row_key FROM upload_row_hash_new "
+            + "GROUP BY row_key HAVING COUNT(*) > 1 LIMIT 1";
+    private static final String DELETE_REMOVED_ROWS = "DELETE t FROM %s t JOIN ("
+            + "SELECT o.row_key FROM upload_row_hash o LEFT JOIN upload_row_hash_new n ON n.row_key = o.row_key "
+            + "WHERE o.table_name = ? AND n.row_key IS NULL) removed ON t.%s = %s";
+    private static final String DELETE_REMOVED_ROW_HASHES = "DELETE o FROM upload_row_hash o "
+            + "LEFT JOIN upload_row_hash_new n ON n.row_key = o.row_key "
+            + "WHERE o.table_name = ? AND n.row_key IS NULL";
+    private static final String UPSERT_CHANGED_ROW_HASHES = "INSERT INTO upload_row_hash (table_name, row_key, row_hash) "
+            + "SELECT ?, n.row_key, n.row_hash FROM upload_row_hash_new n "
+            + "LEFT JOIN upload_row_hash o ON o.table_name = ? AND o.row_key = n.row_key "
+            + "WHERE o.row_key IS NULL OR o.row_hash <> n.row_hash "
+            + "ON DUPLICATE KEY UPDATE row_hash = VALUES(row_hash)";
+    private static final String SELECT_CHECKPOINT = "SELECT file_hash, rows_committed, char_offset "
+            + "FROM upload_checkpoint WHERE table_name = ?";
+    private static final String UPSERT_CHECKPOINT = "INSERT INTO upload_checkpoint "
+            + "(table_name, file_hash, rows_committed, char_offset) VALUES (?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE file_hash = VALUES(file_hash), rows_committed = VALUES(rows_committed), "
+            + "char_offset = VALUES(char_offset)";
+    private static final String DELETE_CHECKPOINT = "DELETE FROM upload_checkpoint WHERE table_name = ?";
+    private static final String SELECT_TABLE_EXISTS = "SELECT COUNT(*) FROM information_schema.tables "
+            + "WHERE table_schema = DATABASE() AND table_name = ?";
+    private static final int ROW_HASH_BATCH_SIZE = 5000;
+
+    @Autowired
+    @Qualifier("ingestDataSource")
+    private DataSource dataSource;
+
+    private volatile boolean tablesCreated;
+
+    /**
+     * Creates the bookkeeping tables on first use. This runs on its own connection because
+     * the DDL would otherwise commit the caller's open transaction.
+     */
+    void ensureTables() throws SQLException {
+        if (tablesCreated) return;
+
+        synchronized (this) {
+            if (tablesCreated) return;
+            try (Connection connection = dataSource.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_SCHEMA_MANIFEST_TABLE);
+                statement.execute(CREATE_FILE_STATE_TABLE);
+                statement.execute(CREATE_ROW_HASH_TABLE);
+                statement.execute(CREATE_CHECKPOINT_TABLE);
+            }
+            tablesCreated = true;
+        }
+    }
+
+    /**
+     * Replaces the recorded column layout of an uploaded table. The segment procedures can
+     * read the manifest to see which columns were typed and how.
+     */
+    void saveSchemaManifest(Connection connection, String tableName, List<String> columnNames,
+                            List<String> columnTypes, int sampledRows) throws SQLException {
+        ensureTables();
+
+        try (PreparedStatement delete = connection.prepareStatement(DELETE_SCHEMA_MANIFEST)) {
+            delete.setString(1, tableName);
+            delete.executeUpdate();
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_SCHEMA_MANIFEST)) {
+            for (int i = 0; i < columnNames.size(); i++) {
+                insert.setString(1, tableName);
+                insert.setInt(2, i + 1);
+                insert.setString(3, columnNames.get(i));
+                insert.setString(4, columnTypes.get(i));
+                insert.setInt(5, sampledRows);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    List<String> findSchemaManifestTypes(Connection connection, String tableName) throws SQLException {
+        ensureTables();
+
+        List<String> columnTypes = new ArrayList<>();
+        try (PreparedStatement select = connection.prepareStatement(SELECT_SCHEMA_MANIFEST_TYPES)) {
+            select.setString(1, tableName);
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    columnTypes.add(resultSet.getString(1));
+                }
+            }
+        }
+        return columnTypes;
+    }
+
+    boolean tableExists(Connection connection, String tableName) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement(SELECT_TABLE_EXISTS)) {
+            select.setString(1, tableName);
+            try (ResultSet resultSet = select.executeQuery()) {
+                return resultSet.next() && resultSet.getInt(1) > 0;
+            }
+        }
+    }
+
+    FileState findFileState(Connection connection, String tableName) throws SQLException {
+        ensureTables();
+
+        try (PreparedStatement select = connection.prepareStatement(SELECT_FILE_STATE)) {
+            select.setString(1, tableName);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (!resultSet.next()) return null;
+                return new FileState(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3),
+                        resultSet.getBoolean(4), resultSet.getLong(5));
+            }
+        }
+    }
+
+    void saveFileState(Connection connection, String tableName, FileState fileState) throws SQLException {
+        ensureTables();
+
+        try (PreparedStatement upsert = connection.prepareStatement(UPSERT_FILE_STATE)) {
+            upsert.setString(1, tableName);
+            upsert.setString(2, fileState.fileHash());
+            upsert.setString(3, fileState.headerHash());
+            upsert.setString(4, fileState.keyColumn());
+            upsert.setBoolean(5, fileState.uniqueKeys());
+            upsert.setLong(6, fileState.rowCount());
+            upsert.executeUpdate();
+        }
+    }
+
+    /**
+     * Forgets the recorded file and row hashes, so the next upload of the table is a full load.
+     */
+    void deleteFileState(Connection connection, String tableName) throws SQLException {
+        ensureTables();
+
+        try (PreparedStatement deleteState = connection.prepareStatement(DELETE_FILE_STATE);
+             PreparedStatement deleteHashes = connection.prepareStatement(DELETE_ROW_HASHES)) {
+            deleteState.setString(1, tableName);
+            deleteState.executeUpdate();
+            deleteHashes.setString(1, tableName);
+            deleteHashes.executeUpdate();
+        }
+    }
+
+    /**
+     * Starts an empty {@code upload_row_hash_new} table on the connection for the fingerprints
+     * of the upload.
+     */
+    void createNewRowHashes(Connection connection) throws SQLException {
+        ensureTables();
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(DROP_NEW_ROW_HASH_TABLE);
+            statement.execute(CREATE_NEW_ROW_HASH_TABLE);
+        }
+    }
+
+    void insertNewRowHashes(Connection connection, List<RowFingerprints.Fingerprint> fingerprints) throws SQLException {
+        if (fingerprints.isEmpty()) return;
+
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_NEW_ROW_HASH)) {
+            int pending = 0;
+            for (RowFingerprints.Fingerprint fingerprint : fingerprints) {
+                insert.setString(1, fingerprint.key());
+                insert.setLong(2, fingerprint.hash());
+                insert.addBatch();
+                if (++pending % ROW_HASH_BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    void dropNewRowHashes(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(DROP_NEW_ROW_HASH_TABLE);
+        }
+    }
+
+    /**
+     * A key that occurs more than once in the upload, or null when the keys are unique.
+     */
+    String findDuplicateNewRowKey(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_DUPLICATE_NEW_ROW_KEY)) {
+            return resultSet.next() ? resultSet.getString(1) : null;
+        }
+    }
+
+    /**
+     * The recorded hashes of some keys of a table; keys without a recorded hash are missing.
+     */
+    Map<String, Long> findRowHashes(Connection connection, String tableName, Collection<String> rowKeys)
+            throws SQLException {
+        Map<String, Long> hashes = new HashMap<>();
+        if (rowKeys.isEmpty()) return hashes;
+
+        String placeholders = String.join(", ", Collections.nCopies(rowKeys.size(), "?"));
+        try (PreparedStatement select = connection.prepareStatement(String.format(SELECT_ROW_HASHES, placeholders))) {
+            select.setString(1, tableName);
+            int index = 2;
+            for (String rowKey : rowKeys) {
+                select.setString(index++, rowKey);
+            }
+            try (ResultSet resultSet = select.executeQuery()) {
+                while (resultSet.next()) {
+                    hashes.put(resultSet.getString(1), resultSet.getLong(2));
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Deletes the rows of the table whose key was recorded for the previous upload but is not
+     * in this one. The recorded keys are converted to the key column's type for the comparison.
+     *
+     * @return the number of deleted rows
+     */
+    int deleteRemovedRows(Connection connection, String tableName, String keyColumnName, ColumnType keyType)
+            throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(String.format(DELETE_REMOVED_ROWS,
+                tableName, keyColumnName, keyType.castFromText("removed.row_key")))) {
+            delete.setString(1, tableName);
+            return delete.executeUpdate();
+        }
+    }
+
+    /**
+     * Makes the recorded hashes of the table those of the upload, writing only the hashes that
+     * are new or changed and deleting those of removed keys.
+     */
+    void applyNewRowHashes(Connection connection, String tableName) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(DELETE_REMOVED_ROW_HASHES);
+             PreparedStatement upsert = connection.prepareStatement(UPSERT_CHANGED_ROW_HASHES)) {
+            delete.setString(1, tableName);
+            delete.executeUpdate();
+            upsert.setString(1, tableName);
+            upsert.setString(2, tableName);
+            upsert.executeUpdate();
+        }
+    }
+
+    /**
+     * Forgets the row hashes of a table whose keys are not unique.
+     */
+    void deleteRowHashes(Connection connection, String tableName) throws SQLException {
+        try (PreparedStatement delete = connection.prepareStatement(DELETE_ROW_HASHES)) {
+            delete.setString(1, tableName);
+            delete.executeUpdate();
+        }
+    }
+
+    Checkpoint findCheckpoint(Connection connection, String tableName) throws SQLException {
+        ensureTables();
+
+        try (PreparedStatement select = connection.prepareStatement(SELECT_CHECKPOINT)) {
+            select.setString(1, tableName);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (!resultSet.next()) return null;
+                return new Checkpoint(resultSet.getString(1), resultSet.getLong(2), resultSet.getLong(3));
+            }
+        }
+    }
+
+    /**
+     * Records how far a load got. Call it in the transaction that commits those rows, so the
+     * checkpoint never runs ahead of the data.
+     */
+    void saveCheckpoint(Connection connection, String tableName, Checkpoint checkpoint) throws SQLException {
+        ensureTables();
+
+        try (PreparedStatement upsert = connection.prepareStatement(UPSERT_CHECKPOINT)) {
+            upsert.setString(1, tableName);
+            upsert.setString(2, checkpoint.fileHash());
+            upsert.setLong(3, checkpoint.rowsCommitted());
+            upsert.setLong(4, checkpoint.charOffset());
+            upsert.executeUpdate();
+        }
+    }
+
+    void deleteCheckpoint(Connection connection, String tableName) throws SQLException {
+        ensureTables();
+
+        try (PreparedStatement delete = connection.prepareStatement(DELETE_CHECKPOINT)) {
+            delete.setString(1, tableName);
+            delete.executeUpdate();
+        }
+    }
+
+    /**
+     * What was recorded about the last successful upload of a table.
+     */
+    record FileState(String fileHash, String headerHash, String keyColumn, boolean uniqueKeys, long rowCount) {
+    }
+
+    /**
+     * Progress of an unfinished load into a staging table: the rows committed so far and the
+     * character offset in the file where the next row starts.
+     */
+    record Checkpoint(String fileHash, long rowsCommitted, long charOffset) {
+    }
+}
@@ -0,0 +1,23 @@
+package com.commercial.backend;
+
+import org.springframework.core.io.InputStreamSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An uploaded CSV file by its original name, or a generated one when the client sent none. The content can be opened more than once,
+ * which the LOAD DATA fallback and incremental re-uploads rely on.
+ */
+record UploadSource(String fileName, InputStreamSource content) {
+
+    UploadSource {
+        if (fileName == null || fileName.isEmpty()) {
+            fileName = "table_" + System.currentTimeMillis();
+        }
+    }
+
+    InputStream getInputStream() throws IOException {
+        return content.getInputStream();
+    }
+}
@@ -0,0 +1,263 @@
+package com.commercial.backend;
+
+import org.apache.poi.hssf.eventusermodel.EventWorkbookBuilder.SheetRecordCollectingListener;
+import org.apache.poi.hssf.eventusermodel.FormatTrackingHSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.model.HSSFFormulaParser;
+import org.apache.poi.hssf.record.ArrayRecord;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoolErrRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.DateWindow1904Record;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.FormulaRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.SharedFormulaRecord;
+import org.apache.poi.hssf.record.SharedValueRecordBase;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.util.CellReference;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Streams the rows of a legacy .xls workbook with the HSSF event API, so the workbook is read
+ * record by record instead of being loaded as a whole.
+ *
+ * <p>The rows come out as a loaded sheet iterates them: rows that are declared but hold no
+ * cell are empty rows, numbers and dates are formatted by their cell format, booleans and
+ * errors are written as Excel shows them and formulas as their formula text. Shared and array
+ * formulas are resolved from the record that follows their first cell.</p>
+ */
+final class XlsSheetReader implements HSSFListener {
+
+    private static final Logger logger = Logger.getLogger(XlsSheetReader.class.getName());
+
+    private final SheetRowHandler handler;
+    private final CachingDataFormatter formatter;
+    private final FormatTrackingHSSFListener formatTracker;
+    private final SheetRecordCollectingListener workbookBuilder;
+
+    private BoundSheetRecord[] sheets;
+    private HSSFWorkbook formulaWorkbook;
+    private boolean date1904;
+    private int depth;
+    private int sheetIndex = -1;
+    private boolean inWorksheet;
+
+    private final Deque<Integer> declaredRows = new ArrayDeque<>();
+    private final List<String> row = new ArrayList<>();
+    private int rowNumber = -1;
+    private final Map<Integer, SharedValueRecordBase> sharedFormulas = new HashMap<>();
+    private FormulaRecord pendingFormula;
+
+    private XlsSheetReader(SheetRowHandler handler, CachingDataFormatter formatter) {
+        this.handler = handler;
+        this.formatter = formatter;
+        this.formatTracker = new FormatTrackingHSSFListener(this);
+        this.workbookBuilder = new SheetRecordCollectingListener(formatTracker);
+    }
+
+    /**
+     * True for an OLE2 file that holds an Excel 97-2003 workbook stream, as opposed to other
+     * OLE2 documents such as an encrypted .xlsx.
+     */
+    static boolean isXlsWorkbook(Path workbookFile) throws IOException {
+        try (POIFSFileSystem fileSystem = new POIFSFileSystem(workbookFile.toFile(), true)) {
+            HSSFWorkbook.getWorkbookDirEntryName(fileSystem.getRoot());
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    static void read(Path workbookFile, SheetRowHandler handler, CachingDataFormatter formatter) throws IOException {
+        try (POIFSFileSystem fileSystem = new POIFSFileSystem(workbookFile.toFile(), true)) {
+            XlsSheetReader reader = new XlsSheetReader(handler, formatter);
+            HSSFRequest request = new HSSFRequest();
+            request.addListenerForAllRecords(reader.workbookBuilder);
+            new HSSFEventFactory().processWorkbookEvents(request, fileSystem);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public void processRecord(Record record) {
+        // The first cell of a shared formula only becomes readable with the record after it
+        if (pendingFormula != null && !(record instanceof SharedValueRecordBase)) {
+            FormulaRecord formula = pendingFormula;
+            pendingFormula = null;
+            cell(formula, formulaText(formula));
+        }
+
+        if (record instanceof BOFRecord bof) {
+            if (depth++ == 0 && bof.getType() != BOFRecord.TYPE_WORKBOOK) {
+                startSheet(bof);
+            }
+        } else if (record instanceof EOFRecord) {
+            if (--depth == 0 && inWorksheet) {
+                endSheet();
+            }
+        } else if (record instanceof DateWindow1904Record window) {
+            date1904 = window.getWindowing() == 1;
+        } else if (inWorksheet && depth == 1) {
+            processSheetRecord(record);
+        }
+    }
+
+    private void processSheetRecord(Record record) {
+        if (record instanceof RowRecord rowRecord) {
+            declaredRows.add(rowRecord.getRowNumber());
+        } else if (record instanceof NumberRecord number) {
+            cell(number, formatNumber(number, number.getValue()));
+        } else if (record instanceof LabelSSTRecord label) {
+            cell(label, workbookBuilder.getSSTRecord().getString(label.getSSTIndex()).getString());
+        } else if (record instanceof LabelRecord label) {
+            cell(label, label.getValue());
+        } else if (record instanceof BoolErrRecord boolErr) {
+            cell(boolErr, boolErr.isBoolean() ? (boolErr.getBooleanValue() ? "TRUE" : "FALSE")
+                    : FormulaError.forInt(boolErr.getErrorValue()).getString());
+        } else if (record instanceof FormulaRecord formula) {
+            CellReference master = formula.getFormula().getExpReference();
+            if (master != null && !sharedFormulas.containsKey(key(master.getRow(), master.getCol()))) {
+                pendingFormula = formula;
+            } else {
+                cell(formula, formulaText(formula));
+            }
+        } else if (record instanceof SharedValueRecordBase shared) {
+            sharedFormulas.put(key(shared.getFirstRow(), shared.getFirstColumn()), shared);
+        }
+    }
+
+    private void startSheet(BOFRecord bof) {
+        if (sheets == null) {
+            sheets = BoundSheetRecord.orderByBofPosition(Arrays.asList(workbookBuilder.getBoundSheetRecords()));
+        }
+        sheetIndex++;
+        // Chart and macro sheets hold no cells, a loaded workbook leaves them out as well
+        inWorksheet = bof.getType() == BOFRecord.TYPE_WORKSHEET;
+        if (inWorksheet) {
+            String sheetName = sheetIndex < sheets.length ? sheets[sheetIndex].getSheetname() : "Sheet" + (sheetIndex + 1);
+            try {
+                handler.startSheet(sheetName);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void endSheet() {
+        endRow();
+        while (!declaredRows.isEmpty()) {
+            emptyRow(declaredRows.poll());
+        }
+        sharedFormulas.clear();
+        inWorksheet = false;
+        try {
+            handler.endSheet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void cell(CellValueRecordInterface cell, String value) {
+        if (cell.getRow() != rowNumber) {
+            endRow();
+            while (!declaredRows.isEmpty() && declaredRows.peek() <= cell.getRow()) {
+                int declaredRow = declaredRows.poll();
+                if (declaredRow < cell.getRow()) emptyRow(declaredRow);
+            }
+            rowNumber = cell.getRow();
+        }
+
+        int column = cell.getColumn();
+        while (row.size() < column) {
+            row.add("");
+        }
+        if (row.size() == column) {
+            row.add(value.trim());
+        }
+    }
+
+    private void endRow() {
+        if (rowNumber < 0) return;
+        rowNumber = -1;
+        try {
+            handler.row(row);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        row.clear();
+    }
+
+    private void emptyRow(int declaredRow) {
+        row.clear();
+        rowNumber = declaredRow;
+        endRow();
+    }
+
+    /**
+     * Formats like DataFormatter does for a loaded cell, which writes the plain value when the
+     * cell has no format string. Workbooks on the 1904 date system are rare enough to be
+     * formatted from the raw value, which only differs for numbers beyond 15 digits.
+     */
+    private String formatNumber(CellValueRecordInterface cell, double value) {
+        String formatString = formatTracker.getFormatString(cell);
+        if (formatString == null || formatString.trim().isEmpty()) {
+            return Double.toString(value);
+        }
+        int formatIndex = formatTracker.getFormatIndex(cell);
+        return date1904 ? formatter.formatRawCellContents(value, formatIndex, formatString, true)
+                : formatter.formatNumericCell(value, formatIndex, formatString);
+    }
+
+    private String formulaText(FormulaRecord formula) {
+        Ptg[] tokens = formula.getParsedExpression();
+        CellReference master = formula.getFormula().getExpReference();
+        if (master != null) {
+            SharedValueRecordBase shared = sharedFormulas.get(key(master.getRow(), master.getCol()));
+            if (shared instanceof SharedFormulaRecord sharedFormula) {
+                tokens = sharedFormula.getFormulaTokens(formula);
+            } else if (shared instanceof ArrayRecord arrayFormula) {
+                tokens = arrayFormula.getFormulaTokens();
+            }
+        }
+
+        if (formulaWorkbook == null) {
+            // Sheet names, external sheets and strings are complete once the first sheet starts
+            formulaWorkbook = workbookBuilder.getStubHSSFWorkbook();
+        }
+        try {
+            return HSSFFormulaParser.toFormulaString(formulaWorkbook, tokens);
+        } catch (RuntimeException e) {
+            logger.fine("Cannot render formula at " + new CellReference(formula.getRow(), formula.getColumn())
+                    .formatAsString() + ", writing its cached value: " + e.getMessage());
+            return formula.getCachedResultTypeEnum() == CellType.NUMERIC ? formatNumber(formula, formula.getValue()) : "";
+        }
+    }
+
+    private static int key(int row, int column) {
+        return row << 8 | column;
+    }
+}
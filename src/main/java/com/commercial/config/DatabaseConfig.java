@@ -1,13 +1,23 @@
 package com.commercial.config;
 
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 
 import javax.sql.DataSource;
 
+/**
+ * One connection pool per workload, so long batch work cannot take the connections the UI
+ * needs: {@code ingestDataSource} for the CSV uploads, {@code conversionDataSource} for the
+ * stored procedures and the Java segments, and {@code reportingDataSource} for reports and the
+ * other short queries behind the UI. Each pool is published under its name in the
+ * {@code hikaricp.connections.*} metrics.
+ */
 @Configuration
 @EnableConfigurationProperties(DataSourceProperties.class)
 public class DatabaseConfig {
@@ -19,13 +29,58 @@ public class DatabaseConfig {
         this.properties = properties;
     }
 
+    /**
+     * Sized for the upload workers and upload jobs; a load waits for a connection rather than
+     * failing while the other loads hold them. Connector/J only offers LOAD DATA LOCAL INFILE
+     * when the connection is opened with {@code allowLoadLocalInfile}, so only this pool sets it.
+     */
     @Bean
-    public DataSource dataSource() {
-        return DataSourceBuilder.create()
+    public HikariDataSource ingestDataSource(@Value("${database.pool.ingest.max-size:8}") int maxSize,
+                                             @Value("${database.pool.ingest.min-idle:0}") int minIdle,
+                                             @Value("${database.pool.ingest.connection-timeout-ms:60000}") long connectionTimeout) {
+        HikariDataSource dataSource = pool("ingest", maxSize, minIdle, connectionTimeout);
+        if (dataSource.getJdbcUrl() != null && dataSource.getJdbcUrl().startsWith("jdbc:mysql:")) {
+            dataSource.addDataSourceProperty("allowLoadLocalInfile", "true");
+        }
+        return dataSource;
+    }
+
+    /**
+     * Sized for the parallel segment procedures plus the workers of the Java segments; their
+     * calls hold a connection for as long as the procedure runs.
+     */
+    @Bean
+    public HikariDataSource conversionDataSource(@Value("${database.pool.conversion.max-size:12}") int maxSize,
+                                                 @Value("${database.pool.conversion.min-idle:0}") int minIdle,
+                                                 @Value("${database.pool.conversion.connection-timeout-ms:60000}") long connectionTimeout) {
+        return pool("conversion", maxSize, minIdle, connectionTimeout);
+    }
+
+    /**
+     * Small pool with idle connections kept open and a short timeout, so a UI request fails
+     * quickly instead of hanging. It is the primary data source, which JPA and the
+     * auto-configured {@code JdbcTemplate} use.
+     */
+    @Bean
+    @Primary
+    public HikariDataSource reportingDataSource(@Value("${database.pool.reporting.max-size:4}") int maxSize,
+                                                @Value("${database.pool.reporting.min-idle:2}") int minIdle,
+                                                @Value("${database.pool.reporting.connection-timeout-ms:5000}") long connectionTimeout) {
+        return pool("reporting", maxSize, minIdle, connectionTimeout);
+    }
+
+    private HikariDataSource pool(String name, int maxSize, int minIdle, long connectionTimeout) {
+        HikariDataSource dataSource = DataSourceBuilder.create()
+                .type(HikariDataSource.class)
                 .driverClassName(properties.getDriverClassName())
                 .url(properties.getUrl())
                 .username(properties.getUsername())
                 .password(properties.getPassword())
                 .build();
+        dataSource.setPoolName(name);
+        dataSource.setMaximumPoolSize(maxSize);
+        dataSource.setMinimumIdle(Math.min(minIdle, maxSize));
+        dataSource.setConnectionTimeout(connectionTimeout);
+        return dataSource;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package com.commercial.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * Takes the place of Boot's {@code applicationTaskExecutor}, which backs off as soon as any
+     * other executor bean is declared; without it asynchronous MVC requests such as the streamed
+     * Excel to CSV download would run on a new thread each. Requests beyond the queue are
+     * rejected rather than piling up threads.
+     */
+    @Bean(name = "applicationTaskExecutor")
+    public ThreadPoolTaskExecutor applicationTaskExecutor(@Value("${web.async.pool-size:8}") int poolSize,
+                                                         @Value("${web.async.queue-capacity:64}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("web-async-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * Workers for parallel CSV ingestion, one uploaded file per task.
+     * When the queue is full the submitting thread loads the file itself.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor uploadExecutor(@Value("${upload.parallel.pool-size:4}") int poolSize,
+                                                 @Value("${upload.parallel.queue-capacity:32}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("upload-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * Runs background upload jobs, separate from the request threads and from the per-file
+     * workers above so a queue of large uploads cannot starve the other endpoints.
+     * Submissions beyond the queue are rejected rather than run on the request thread.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor uploadJobExecutor(@Value("${upload.jobs.pool-size:2}") int poolSize,
+                                                    @Value("${upload.jobs.queue-capacity:16}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("upload-job-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * Parses the sheets of an .xlsx workbook concurrently, one sheet per task. A pool size of 0
+     * uses one thread per available processor. When the queue is full the converting thread
+     * parses the sheet itself.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor excelSheetExecutor(@Value("${excel.sheets.pool-size:0}") int poolSize,
+                                                     @Value("${excel.sheets.queue-capacity:64}") int queueCapacity) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("excel-sheet-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * Runs the segment procedures of a data conversion that do not depend on each other, one
+     * procedure per task on its own connection. When the queue is full the converting thread
+     * runs the procedure itself.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor conversionExecutor(@Value("${conversion.parallel.pool-size:6}") int poolSize,
+                                                     @Value("${conversion.parallel.queue-capacity:16}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(poolSize);
+        executor.setMaxPoolSize(poolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("conversion-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+
+    /**
+     * Workers of the segments that are mapped in Java. Each segment run takes
+     * {@code conversion.engine.workers} of them; runs that find the pool busy queue their
+     * workers until threads free up. A pool size of 0 uses one thread per available processor.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor segmentTransformExecutor(@Value("${conversion.engine.pool-size:0}") int poolSize) {
+        int threads = poolSize > 0 ? poolSize : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("segment-transform-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        return executor;
+    }
+}
@@ -0,0 +1,38 @@
+package com.commercial.config;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.config.MeterFilterReply;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+@Configuration
+public class MetricsConfig {
+
+    private static final Logger logger = Logger.getLogger(MetricsConfig.class.getName());
+
+    /**
+     * The {@code upload.*} meters are tagged with the table, which is named after the uploaded
+     * file, so every new file name would add time series, each with its histogram buckets.
+     * Tables beyond the first {@code upload.metrics.max-tables} are not recorded.
+     */
+    @Bean
+    public MeterFilter uploadTableTagLimit(@Value("${upload.metrics.max-tables:100}") int maxTables) {
+        AtomicBoolean warned = new AtomicBoolean();
+        MeterFilter deny = new MeterFilter() {
+            @Override
+            public MeterFilterReply accept(Meter.Id id) {
+                if (warned.compareAndSet(false, true)) {
+                    logger.warning("Upload metrics reached " + maxTables + " tables, not recording "
+                            + id.getTag("table") + " or any further table; raise upload.metrics.max-tables to keep them");
+                }
+                return MeterFilterReply.DENY;
+            }
+        };
+        return MeterFilter.maximumAllowableTags("upload.", "table", maxTables, deny);
+    }
+}
@@ -0,0 +1,56 @@
+package com.commercial.backend;
+
+import org.apache.poi.hssf.usermodel.HSSFCell;
+import org.apache.poi.hssf.usermodel.HSSFCellStyle;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CachingDataFormatterTest {
+
+	private static final String[] FORMATS = {"General", "@", "0.00", "#,##0.00", "0.00%", "0.00E+00", "dd-mm-yyyy", "#,##0;(#,##0)"};
+	private static final int[] FORMAT_INDEXES = {0, 49, 2, 4, 10, 11, 165, 37};
+	private static final double[] VALUES = {0, -0.0, 1, -42, 43831, 43831.75, 0.1 + 0.2, 1234567.891, 99999999999d, 1e11, 1e-11, -1e15};
+
+	@Test
+	void formatsLikeDataFormatterAndResolvesEveryFormatOnce() {
+		DataFormatter plain = new DataFormatter();
+		CachingDataFormatter caching = new CachingDataFormatter();
+
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < FORMATS.length; i++) {
+				for (double value : VALUES) {
+					assertEquals(plain.formatRawCellContents(value, FORMAT_INDEXES[i], FORMATS[i]),
+							caching.formatRawCellContents(value, FORMAT_INDEXES[i], FORMATS[i]),
+							FORMATS[i] + " " + value);
+				}
+			}
+		}
+
+		assertEquals(2L * FORMATS.length * VALUES.length, caching.getLookups());
+		// Only the first value of every format resolves it, all others reuse the resolved format
+		assertEquals(FORMATS.length, caching.getLookups() - caching.getHits());
+	}
+
+	@Test
+	void formatsNumericCellsLikeALoadedWorkbook() throws Exception {
+		DataFormatter plain = new DataFormatter();
+		CachingDataFormatter caching = new CachingDataFormatter();
+
+		try (HSSFWorkbook workbook = new HSSFWorkbook()) {
+			HSSFCell cell = workbook.createSheet().createRow(0).createCell(0);
+			for (String format : FORMATS) {
+				HSSFCellStyle style = workbook.createCellStyle();
+				style.setDataFormat(workbook.createDataFormat().getFormat(format));
+				cell.setCellStyle(style);
+				for (double value : VALUES) {
+					cell.setCellValue(value);
+					assertEquals(plain.formatCellValue(cell),
+							caching.formatNumericCell(value, style.getDataFormat(), format), format + " " + value);
+				}
+			}
+		}
+	}
+}
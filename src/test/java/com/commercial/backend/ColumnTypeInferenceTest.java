@@ -0,0 +1,52 @@
+package com.commercial.backend;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ColumnTypeInferenceTest {
+
+	@Test
+	void leavesRoomForLongerTextAfterTheSample() {
+		ColumnTypeInference inference = new ColumnTypeInference(2);
+		for (int i = 0; i < 1000; i++) {
+			inference.observe(new String[]{"C" + i, "Branch " + "x".repeat(i % 50)});
+		}
+		ColumnType[] types = inference.inferTypes();
+
+		assertEquals("VARCHAR(80)", types[0].sqlDefinition());
+		assertEquals("VARCHAR(112)", types[1].sqlDefinition());
+		// Longer than anything sampled, as rows after the sample may be
+		String longerName = "Branch " + "x".repeat(100);
+		assertEquals(longerName, types[1].normalize(longerName));
+	}
+
+	@Test
+	void rejectsLaterValuesThatDoNotFitTheInferredType() {
+		ColumnTypeInference inference = new ColumnTypeInference(1);
+		inference.observe(new String[]{"1024"});
+		inference.observe(new String[]{"2048"});
+		ColumnType type = inference.inferTypes()[0];
+
+		assertEquals("BIGINT", type.sqlDefinition());
+		// The upload reloads the file as VARCHAR columns when this happens
+		assertThrows(IllegalArgumentException.class, () -> type.normalize("00417"));
+	}
+
+	@Test
+	void spellsKeysTheWayTheColumnStoresThem() {
+		ColumnType date = ColumnType.date(ColumnType.DATE_FORMATS.get(1));
+		ColumnType decimal = ColumnType.decimal(10, 2);
+
+		assertEquals("2024-03-31", date.canonicalValue("31-03-2024"));
+		assertEquals("1.50", decimal.canonicalValue("1.5"));
+		assertEquals("0", ColumnType.bigint().canonicalValue("-0"));
+		assertNull(ColumnType.bigint().canonicalValue(""));
+		// Recorded keys are compared with the column in its own type, never as text or doubles
+		assertEquals("CAST(k AS SIGNED)", ColumnType.bigint().castFromText("k"));
+		assertEquals("CAST(k AS DATE)", date.castFromText("k"));
+		assertEquals("k", ColumnType.varchar(80).castFromText("k"));
+	}
+}
@@ -0,0 +1,110 @@
+package com.commercial.backend;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionRunLogTest {
+
+	private static final Logger logger = Logger.getLogger(ConversionRunLogTest.class.getName());
+
+	@TempDir
+	Path logDir;
+
+	private ConversionRunLog runLog;
+
+	@BeforeEach
+	void startRunLog() {
+		runLog = new ConversionRunLog();
+		ReflectionTestUtils.setField(runLog, "logDir", logDir.toString());
+		ReflectionTestUtils.setField(runLog, "queueCapacity", 100);
+		ReflectionTestUtils.setField(runLog, "retainedRuns", 2);
+		runLog.start();
+	}
+
+	@AfterEach
+	void stopRunLog() {
+		runLog.stop();
+	}
+
+	@Test
+	void writesOnlyTheRecordsOfAnOpenRunTaggedWithItsId() throws Exception {
+		logger.info("before the run");
+		String runId;
+		try (ConversionRunLog.Run run = runLog.open()) {
+			runId = run.id();
+			logger.info("during the run");
+			assertThrows(IllegalStateException.class, runLog::open);
+		}
+		logger.info("after the run");
+
+		String log = awaitLog(runId, "during the run");
+		assertTrue(log.contains("[" + runId + "] "));
+		assertFalse(log.contains("before the run"));
+		assertFalse(log.contains("after the run"));
+		assertNull(runLog.read("../" + runId));
+	}
+
+	@Test
+	void takesTheRecordsOfTheRunsTasksButNotOfOtherThreads() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		String runId;
+		try (ConversionRunLog.Run run = runLog.open()) {
+			runId = run.id();
+			executor.submit(() -> logger.info("upload on another thread")).get();
+			CompletableFuture.runAsync(() -> logger.info("stage of the run"),
+					ConversionRunLog.inCurrentRun(executor)).get();
+			logger.info("end of the run");
+		} finally {
+			executor.shutdown();
+		}
+
+		String log = awaitLog(runId, "end of the run");
+		assertTrue(log.contains("stage of the run"));
+		assertFalse(log.contains("upload on another thread"));
+	}
+
+	@Test
+	void keepsTheLogsOfTheLatestRuns() throws Exception {
+		List<String> runIds = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			try (ConversionRunLog.Run run = runLog.open()) {
+				runIds.add(run.id());
+				logger.info("run " + i);
+			}
+			awaitLog(runIds.get(i), "run " + i);
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (runLog.recentRuns().size() > 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(List.of(runIds.get(2), runIds.get(1)), runLog.recentRuns());
+	}
+
+	private String awaitLog(String runId, String text) throws Exception {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			String log = runLog.read(runId);
+			if (log != null && log.contains(text)) return log;
+			Thread.sleep(10);
+		}
+		throw new AssertionError("No \"" + text + "\" in the log of run " + runId);
+	}
+}
@@ -0,0 +1,79 @@
+package com.commercial.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvTokenizerTest {
+
+	@Test
+	void splitsQuotedFieldsWithEscapedQuotesAndLineBreaks() throws IOException {
+		CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(
+				"id,name,address\r\n1,\"Acme, \"\"Ltd\"\"\",\"Line 1\nLine 2\"\n2,Beta,\n"));
+		tokenizer.setSanitizing(false);
+
+		assertTrue(tokenizer.nextRecord());
+		assertArrayEquals(new String[]{"id", "name", "address"}, tokenizer.fields());
+		assertTrue(tokenizer.nextRecord());
+		assertArrayEquals(new String[]{"1", "Acme, \"Ltd\"", "Line 1\nLine 2"}, tokenizer.fields());
+		assertTrue(tokenizer.nextRecord());
+		assertArrayEquals(new String[]{"2", "Beta", ""}, tokenizer.fields());
+		assertFalse(tokenizer.nextRecord());
+		assertEquals(3, tokenizer.getRecordNumber());
+	}
+
+	@Test
+	void sanitizesWhitespaceInTheSamePass() throws IOException {
+		CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(
+				"  padded  ,\"multi \n line\",\"a\r\nb\",one\ttab,many   spaces\n"));
+
+		assertTrue(tokenizer.nextRecord());
+		assertArrayEquals(new String[]{"padded", "multi line", "ab", "one\ttab", "many spaces"}, tokenizer.fields());
+	}
+
+	@Test
+	void sanitizesStandaloneValuesLikeTokenizedFields() {
+		assertEquals("padded", CsvTokenizer.sanitize("  padded  "));
+		assertEquals("multi line", CsvTokenizer.sanitize("multi \n line"));
+		assertEquals("one\ttab", CsvTokenizer.sanitize("one\ttab"));
+		assertEquals("many spaces", CsvTokenizer.sanitize("many   spaces"));
+		assertEquals("", CsvTokenizer.sanitize(" \r\n "));
+	}
+
+	@Test
+	void skipsBlankLinesAndReadsLastRecordWithoutLineBreak() throws IOException {
+		CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("a,b\n\n\r\nc,d"));
+
+		assertTrue(tokenizer.nextRecord());
+		assertArrayEquals(new String[]{"a", "b"}, tokenizer.fields());
+		assertTrue(tokenizer.nextRecord());
+		assertArrayEquals(new String[]{"c", "d"}, tokenizer.fields());
+		assertFalse(tokenizer.nextRecord());
+	}
+
+	@Test
+	void resumesFromCharOffsetOfAnEarlierRead() throws IOException {
+		StringBuilder csv = new StringBuilder("id,value\n");
+		for (int i = 1; i <= 20000; i++) {
+			csv.append(i).append(",\"row ").append(i).append("\"\n");
+		}
+
+		CsvTokenizer firstRead = new CsvTokenizer(new StringReader(csv.toString()));
+		for (int i = 0; i <= 15000; i++) {
+			assertTrue(firstRead.nextRecord());
+		}
+		long checkpoint = firstRead.getCharOffset();
+
+		CsvTokenizer secondRead = new CsvTokenizer(new StringReader(csv.toString()));
+		assertTrue(secondRead.nextRecord());
+		secondRead.skipTo(checkpoint);
+		assertTrue(secondRead.nextRecord());
+		assertArrayEquals(new String[]{"15001", "row 15001"}, secondRead.fields());
+	}
+}
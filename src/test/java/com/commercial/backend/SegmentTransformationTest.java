@@ -0,0 +1,157 @@
+package com.commercial.backend;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SegmentTransformationTest {
+
+	private static final int SOURCE_ROWS = 10000;
+
+	private JdbcDataSource dataSource;
+	private ExecutorService workers;
+
+	@BeforeEach
+	void createStagingTable() throws SQLException {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:segments;DB_CLOSE_DELAY=-1");
+		workers = Executors.newFixedThreadPool(3);
+
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE borrower (borrower_id INT, name VARCHAR(64))");
+			statement.execute("CREATE TABLE borrower_seg (borrower_id VARCHAR(16), borrower_name VARCHAR(64))");
+			try (PreparedStatement insert = connection.prepareStatement("INSERT INTO borrower VALUES (?, ?)")) {
+				for (int i = 1; i <= SOURCE_ROWS; i++) {
+					insert.setInt(1, i);
+					insert.setString(2, " borrower " + i + " ");
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+		}
+	}
+
+	@AfterEach
+	void dropDatabase() throws SQLException {
+		workers.shutdownNow();
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("DROP ALL OBJECTS");
+		}
+	}
+
+	@Test
+	void mapsEverySourceRowAcrossTheWorkers() throws Exception {
+		new SegmentTransformation(transformer(null), dataSource, workers, new Semaphore(10), 3, 250, 1000).run();
+
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+			 ResultSet resultSet = statement.executeQuery("SELECT COUNT(*), COUNT(DISTINCT borrower_id), "
+					 + "MAX(CASE WHEN borrower_id = 'B42' THEN borrower_name END) FROM borrower_seg")) {
+			resultSet.next();
+			// Every tenth borrower is written twice
+			assertEquals(SOURCE_ROWS + SOURCE_ROWS / 10, resultSet.getInt(1));
+			assertEquals(SOURCE_ROWS, resultSet.getInt(2));
+			assertEquals("BORROWER 42", resultSet.getString(3));
+		}
+	}
+
+	@Test
+	void failsTheRunAndRollsBackWhenAMappingFails() throws Exception {
+		SegmentTransformation transformation = new SegmentTransformation(transformer("7777"), dataSource, workers,
+				new Semaphore(10), 3, 250, 0);
+
+		SQLException failure = assertThrows(SQLException.class, transformation::run);
+		assertEquals("Cannot map borrower 7777", failure.getMessage());
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+			 ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM borrower_seg")) {
+			resultSet.next();
+			assertEquals(0, resultSet.getInt(1));
+		}
+	}
+
+	@Test
+	void runsTwoSegmentsAtOnceOnAPoolThatHoldsOnlyOne() throws Exception {
+		// Each run holds 4 connections until it finishes, and the pool only has 4
+		try (HikariDataSource pool = new HikariDataSource()) {
+			pool.setJdbcUrl("jdbc:h2:mem:segments;DB_CLOSE_DELAY=-1");
+			pool.setMaximumPoolSize(4);
+			pool.setConnectionTimeout(1000);
+			Semaphore connectionPermits = new Semaphore(pool.getMaximumPoolSize(), true);
+			ExecutorService stages = Executors.newFixedThreadPool(2);
+			try {
+				CompletableFuture<?> first = CompletableFuture.runAsync(() -> run(
+						new SegmentTransformation(transformer(null), pool, workers, connectionPermits, 3, 250, 1000)), stages);
+				CompletableFuture<?> second = CompletableFuture.runAsync(() -> run(
+						new SegmentTransformation(transformer(null), pool, workers, connectionPermits, 3, 250, 1000)), stages);
+				CompletableFuture.allOf(first, second).get(30, TimeUnit.SECONDS);
+			} finally {
+				stages.shutdownNow();
+			}
+			assertEquals(pool.getMaximumPoolSize(), connectionPermits.availablePermits());
+		}
+
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement();
+			 ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM borrower_seg")) {
+			resultSet.next();
+			assertEquals(2 * (SOURCE_ROWS + SOURCE_ROWS / 10), resultSet.getInt(1));
+		}
+	}
+
+	private static void run(SegmentTransformation transformation) {
+		try {
+			transformation.run();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static SegmentTransformer transformer(String failingId) {
+		return new SegmentTransformer() {
+			@Override
+			public String procedureName() {
+				return "BorrowerSegmentProcedure";
+			}
+
+			@Override
+			public String sourceQuery() {
+				return "SELECT borrower_id, name FROM borrower";
+			}
+
+			@Override
+			public String targetTable() {
+				return "borrower_seg";
+			}
+
+			@Override
+			public List<String> targetColumns() {
+				return List.of("borrower_id", "borrower_name");
+			}
+
+			@Override
+			public void transform(SourceRow row, RowWriter out) throws SQLException {
+				String id = row.get("BORROWER_ID");
+				if (id.equals(failingId)) throw new SQLException("Cannot map borrower " + id);
+				out.write("B" + id, row.get(1).trim().toUpperCase());
+				if (Integer.parseInt(id) % 10 == 0) {
+					out.write("B" + id, "duplicate");
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,133 @@
+package com.commercial.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StageSchedulerTest {
+
+	@Test
+	void startsDependentsOnlyAfterTheirDependenciesAndRunsSiblingsTogether() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<String> events = new CopyOnWriteArrayList<>();
+			CountDownLatch siblingsRunning = new CountDownLatch(2);
+			StageScheduler.Stage sibling = () -> {
+				siblingsRunning.countDown();
+				// Only returns when the other sibling runs at the same time
+				assertTrue(siblingsRunning.await(5, TimeUnit.SECONDS));
+				events.add("sibling");
+			};
+
+			List<StageScheduler.StageTiming> timings = new StageScheduler(executor)
+					.stage("truncate", () -> events.add("truncate"))
+					.stage("borrower", () -> events.add("borrower"), "truncate")
+					.stage("address", sibling, "borrower")
+					.stage("security", sibling, "borrower")
+					.run();
+
+			assertEquals(List.of("truncate", "borrower", "sibling", "sibling"), events);
+			assertEquals(4, timings.size());
+			assertTrue(timings.stream().allMatch(timing -> timing.status() == StageScheduler.Status.SUCCEEDED));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void cancelsRunningStagesAndSkipsTheRestWhenAStageFails() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			CountDownLatch cancelled = new CountDownLatch(1);
+			StageScheduler.Stage slow = new StageScheduler.Stage() {
+				@Override
+				public void run() throws Exception {
+					if (cancelled.await(5, TimeUnit.SECONDS)) throw new IllegalStateException("cancelled");
+				}
+
+				@Override
+				public void cancel() {
+					cancelled.countDown();
+				}
+			};
+
+			StageScheduler scheduler = new StageScheduler(executor)
+					.stage("borrower", () -> { })
+					.stage("address", slow, "borrower")
+					.stage("security", () -> { throw new IllegalStateException("broken"); }, "borrower")
+					.stage("report", () -> { }, "address", "security");
+
+			ExecutionException failure = assertThrows(ExecutionException.class, scheduler::run);
+			assertEquals("broken", failure.getCause().getMessage());
+			assertEquals(List.of(StageScheduler.Status.SUCCEEDED, StageScheduler.Status.CANCELLED,
+							StageScheduler.Status.FAILED, StageScheduler.Status.SKIPPED),
+					scheduler.timings().stream().map(StageScheduler.StageTiming::status).toList());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void handsTheExecutorNoMoreStagesThanItCanTake() throws Exception {
+		// A queue for the stages started while finished ones release their threads, and no caller-runs fallback
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(2),
+				new ThreadPoolExecutor.AbortPolicy());
+		try {
+			AtomicInteger running = new AtomicInteger();
+			AtomicInteger mostRunning = new AtomicInteger();
+			List<String> callers = new CopyOnWriteArrayList<>();
+			StageScheduler.Stage stage = () -> {
+				mostRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				callers.add(Thread.currentThread().getName());
+				Thread.sleep(20);
+				running.decrementAndGet();
+			};
+
+			StageScheduler scheduler = new StageScheduler(executor, 2).stage("borrower", () -> { });
+			for (int i = 0; i < 8; i++) {
+				scheduler.stage("segment-" + i, stage, "borrower");
+			}
+			List<StageScheduler.StageTiming> timings = scheduler.run();
+
+			assertTrue(timings.stream().allMatch(timing -> timing.status() == StageScheduler.Status.SUCCEEDED));
+			assertEquals(2, mostRunning.get());
+			assertFalse(callers.contains(Thread.currentThread().getName()));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void reportsStagesCompletedEarlierAsSkippedAndRunsTheirDependents() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			List<String> events = new CopyOnWriteArrayList<>();
+			StageScheduler scheduler = new StageScheduler(executor)
+					.completed("borrower#0")
+					.stage("address#0", () -> events.add("address#0"), "borrower#0");
+
+			List<StageScheduler.StageTiming> timings = scheduler.run();
+
+			assertEquals(List.of("address#0"), events);
+			assertEquals(List.of(StageScheduler.Status.SKIPPED, StageScheduler.Status.SUCCEEDED),
+					timings.stream().map(StageScheduler.StageTiming::status).toList());
+			assertEquals(0, timings.get(0).durationMillis());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}